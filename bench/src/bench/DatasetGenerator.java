@@ -0,0 +1,345 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates a synthetic dataset in the schema IMDB parses, so performance work
+ * can be reproduced at full scale without the real files.  It writes
+ * title.basics.tsv and title.ratings.tsv to a directory, where they are read
+ * with MovieMain's --data=DIR option or the benchmarks' dataDirectory parameter.
+ * <br>
+ * The output only depends on the seed and the number of rows, since every
+ * value comes from one java.util.Random, whose sequence is fixed by its
+ * specification, and StrictMath, which gives the same results on every JVM.
+ * <br>
+ * The distributions roughly follow the real dataset:
+ * <ul>
+ *     <li>most titles are TV episodes, then shorts and movies, with a few of
+ *     the types IMDB does not know (tvShort, tvPilot) and about 1.5% adult
+ *     titles</li>
+ *     <li>start years skew toward recent years, and about 12% are missing</li>
+ *     <li>runtimes depend on the type and most are missing</li>
+ *     <li>one to three genres, from a skewed mix led by Drama, Comedy and
+ *     Documentary</li>
+ *     <li>about a quarter of the titles are rated, with ratings around 7 and
+ *     log-normally distributed votes, so a few titles have millions of votes</li>
+ * </ul>
+ * Usage: DatasetGenerator seed rows directory, e.g. "42 10000000 gen-10m".
+ * Realistic sizes are one to twenty million rows.
+ *
+ * @author Ryan Nowak
+ */
+public class DatasetGenerator {
+    /** the missing field marker */
+    private final static String NO_FIELD = "\\N";
+    /** the title types, including ones IMDB does not know */
+    private final static String[] TYPES = {
+            "tvEpisode", "short", "movie", "video", "tvSeries", "tvMovie",
+            "tvMiniSeries", "tvSpecial", "videoGame", "tvShort", "tvPilot"
+    };
+    /** the share of each type, in thousandths */
+    private final static int[] TYPE_WEIGHTS = {700, 90, 70, 45, 35, 25, 10, 8, 8, 7, 2};
+    /** the genres, most common first */
+    private final static String[] GENRES = {
+            "Drama", "Comedy", "Documentary", "Talk-Show", "Reality-TV", "Family",
+            "Romance", "Animation", "Action", "Crime", "News", "Game-Show",
+            "Adventure", "Music", "Short", "Horror", "Thriller", "Mystery",
+            "Fantasy", "History", "Biography", "Sport", "Sci-Fi", "Adult",
+            "Musical", "War", "Western", "Film-Noir"
+    };
+    /** common title words, so substring queries like "The" or "Star" match like they do on the real data */
+    private final static String[] WORDS = {
+            "The", "the", "of", "a", "and", "in", "Love", "Man", "Night", "Day",
+            "Life", "Star", "World", "Girl", "Story", "Last", "Dead", "Time", "Home",
+            "Big", "Little", "Blue", "Red", "War", "King", "City", "Dream", "Wars",
+            "Christmas", "Return", "Secret", "House", "Lost", "Black", "Heart",
+            "Avengers", "Lebowski", "Starman", "Philadelphia", "Vertigo", "Kane"
+    };
+    /** syllables that make up the rarer title words */
+    private final static String[] SYLLABLES = {
+            "ka", "lo", "mi", "ra", "te", "vo", "shi", "an", "el", "or", "un",
+            "bel", "dor", "fen", "gar", "hal", "ix", "jun", "mar", "nor", "pel"
+    };
+    /** the latest start year */
+    private final static int LAST_YEAR = 2024;
+    /** the earliest start year */
+    private final static int FIRST_YEAR = 1874;
+
+    /** the source of every value */
+    private final Random random;
+    /** reused to build each line */
+    private final StringBuilder line;
+
+    /**
+     * Create a generator.
+     *
+     * @param seed the seed
+     */
+    public DatasetGenerator(long seed) {
+        this.random = new Random(seed);
+        this.line = new StringBuilder(256);
+    }
+
+    /**
+     * Write the basics and ratings files.
+     *
+     * @param rows the number of titles
+     * @param directory the directory to write them to, created if needed
+     * @throws IOException if a file cannot be written
+     */
+    public void generate(long rows, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        try (Writer basics = open(new File(directory, "title.basics.tsv"));
+             Writer ratings = open(new File(directory, "title.ratings.tsv"))) {
+            basics.write("tconst\ttitleType\tprimaryTitle\toriginalTitle\tisAdult\tstartYear\tendYear\truntimeMinutes\tgenres\n");
+            ratings.write("tconst\taverageRating\tnumVotes\n");
+
+            long id = 0;
+            for (long row = 0; row < rows; ++row) {
+                // IDs ascend with small gaps, as in the real files
+                id += 1 + this.random.nextInt(3);
+                String tconst = tconst(id);
+                writeBasics(basics, tconst);
+                if (this.random.nextInt(100) < 25) {
+                    writeRating(ratings, tconst);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a file for writing in UTF-8.
+     *
+     * @param file the file
+     * @return the writer
+     * @throws IOException if the file cannot be opened
+     */
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                                  1 << 20);
+    }
+
+    /**
+     * Format an ID as a tconst, zero padded to seven digits.
+     *
+     * @param id the number
+     * @return the tconst string
+     */
+    private static String tconst(long id) {
+        String digits = Long.toString(id);
+        StringBuilder result = new StringBuilder("tt");
+        for (int i = digits.length(); i < 7; ++i) {
+            result.append('0');
+        }
+        return result.append(digits).toString();
+    }
+
+    /**
+     * Write the basics line of a title.
+     *
+     * @param out the basics file
+     * @param tconst the ID
+     * @throws IOException if the file cannot be written
+     */
+    private void writeBasics(Writer out, String tconst) throws IOException {
+        String type = TYPES[pick(TYPE_WEIGHTS)];
+        String title = title(type);
+        int year = this.random.nextInt(100) < 12 ? -1 : year();
+        int runtime = runtime(type);
+
+        this.line.setLength(0);
+        this.line.append(tconst).append('\t')
+                 .append(type).append('\t')
+                 .append(title).append('\t')
+                 .append(title).append('\t')
+                 .append(this.random.nextInt(1000) < 15 ? '1' : '0').append('\t');
+        appendNumber(year);
+        this.line.append('\t');
+        if (type.equals("tvSeries") && year >= 0 && this.random.nextBoolean()) {
+            appendNumber(Math.min(LAST_YEAR, year + 1 + this.random.nextInt(10)));
+        } else {
+            this.line.append(NO_FIELD);
+        }
+        this.line.append('\t');
+        appendNumber(runtime);
+        this.line.append('\t');
+        appendGenres();
+        this.line.append('\n');
+        out.append(this.line);
+    }
+
+    /**
+     * Write the ratings line of a title.
+     *
+     * @param out the ratings file
+     * @param tconst the ID
+     * @throws IOException if the file cannot be written
+     */
+    private void writeRating(Writer out, String tconst) throws IOException {
+        int tenths = (int) Math.round(69 + this.random.nextGaussian() * 12);
+        tenths = Math.max(10, Math.min(100, tenths));
+        long votes = 5 + (long) StrictMath.exp(2.5 + this.random.nextGaussian() * 1.8);
+        votes = Math.min(3_000_000, votes);
+
+        this.line.setLength(0);
+        this.line.append(tconst).append('\t')
+                 .append(tenths / 10).append('.').append(tenths % 10).append('\t')
+                 .append(votes).append('\n');
+        out.append(this.line);
+    }
+
+    /**
+     * Pick an index with probability proportional to its weight.
+     *
+     * @param weights the weights
+     * @return the index
+     */
+    private int pick(int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int value = this.random.nextInt(total);
+        int i = 0;
+        while (value >= weights[i]) {
+            value -= weights[i++];
+        }
+        return i;
+    }
+
+    /**
+     * Make up a title.  Many episodes are only numbered, as in the real data.
+     *
+     * @param type the title type
+     * @return the title
+     */
+    private String title(String type) {
+        if (type.equals("tvEpisode") && this.random.nextInt(100) < 40) {
+            return "Episode #" + (1 + this.random.nextInt(12)) + "." + (1 + this.random.nextInt(30));
+        }
+        StringBuilder title = new StringBuilder();
+        int words = 1 + this.random.nextInt(4);
+        for (int i = 0; i < words; ++i) {
+            if (i > 0) {
+                title.append(' ');
+            }
+            if (this.random.nextInt(100) < 60) {
+                // squaring skews the choice toward the common words at the front
+                double skew = this.random.nextDouble();
+                title.append(WORDS[(int) (skew * skew * WORDS.length)]);
+            } else {
+                int syllables = 1 + this.random.nextInt(3);
+                int start = title.length();
+                for (int j = 0; j < syllables; ++j) {
+                    title.append(SYLLABLES[this.random.nextInt(SYLLABLES.length)]);
+                }
+                title.setCharAt(start, Character.toUpperCase(title.charAt(start)));
+            }
+        }
+        return title.toString();
+    }
+
+    /**
+     * Pick a start year, more likely the more recent.
+     *
+     * @return the year
+     */
+    private int year() {
+        double age = -StrictMath.log(1 - this.random.nextDouble()) * 18;
+        return Math.max(FIRST_YEAR, LAST_YEAR - (int) age);
+    }
+
+    /**
+     * Pick a runtime for a type.
+     *
+     * @param type the title type
+     * @return the runtime in minutes, or -1 if it is missing
+     */
+    private int runtime(String type) {
+        if (this.random.nextInt(100) < 65) {
+            return -1;
+        }
+        double minutes;
+        switch (type) {
+            case "movie", "tvMovie" -> minutes = 95 + this.random.nextGaussian() * 22;
+            case "tvEpisode" -> minutes = 30 + this.random.nextGaussian() * 14;
+            case "short", "tvShort" -> minutes = 2 + this.random.nextInt(40);
+            default -> minutes = 60 + this.random.nextGaussian() * 30;
+        }
+        return Math.max(1, (int) minutes);
+    }
+
+    /**
+     * Add one to three genres in alphabetical order, or the missing marker.
+     */
+    private void appendGenres() {
+        if (this.random.nextInt(100) < 5) {
+            this.line.append(NO_FIELD);
+            return;
+        }
+        int count = 1 + this.random.nextInt(3);
+        boolean[] chosen = new boolean[GENRES.length];
+        for (int i = 0; i < count; ++i) {
+            double skew = this.random.nextDouble();
+            chosen[(int) (skew * skew * skew * GENRES.length)] = true;
+        }
+        String[] names = new String[GENRES.length];
+        int size = 0;
+        for (int i = 0; i < GENRES.length; ++i) {
+            if (chosen[i]) {
+                names[size++] = GENRES[i];
+            }
+        }
+        Arrays.sort(names, 0, size);
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) {
+                this.line.append(',');
+            }
+            this.line.append(names[i]);
+        }
+    }
+
+    /**
+     * Add a number, or the missing marker for a negative one.
+     *
+     * @param value the number
+     */
+    private void appendNumber(int value) {
+        if (value < 0) {
+            this.line.append(NO_FIELD);
+        } else {
+            this.line.append(value);
+        }
+    }
+
+    /**
+     * Generate a dataset.
+     *
+     * @param args the seed, the number of rows and the directory to write to
+     * @throws IOException if a file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: java bench.DatasetGenerator seed rows directory");
+            System.exit(1);
+        }
+        long seed = Long.parseLong(args[0]);
+        long rows = Long.parseLong(args[1]);
+        File directory = new File(args[2]);
+
+        long start = System.currentTimeMillis();
+        new DatasetGenerator(seed).generate(rows, directory);
+        System.out.println("Wrote " + rows + " titles to " + directory + " in " +
+                           ((System.currentTimeMillis() - start) / 1000.0) + " s");
+    }
+}
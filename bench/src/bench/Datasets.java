@@ -0,0 +1,34 @@
+package bench;
+
+import movies.LoadOptions;
+
+/**
+ * How the benchmarks find and load a dataset.  The dataset directory is a JMH
+ * parameter, relative to the working directory (data/ in the run configuration),
+ * so the same benchmarks run against datasets of different sizes, e.g.
+ * "-p dataDirectory=.,gen-1m,gen-10m" with datasets made by the generator.
+ *
+ * @author Ryan Nowak
+ */
+final class Datasets {
+    /**
+     * Not instantiable.
+     */
+    private Datasets() {
+    }
+
+    /**
+     * Create the load options for a dataset.
+     *
+     * @param dataDirectory the directory holding the tsv files
+     * @param parallel whether the basics file is parsed in parallel
+     * @param columnar whether the movies are kept in a columnar store
+     * @return the options
+     */
+    static LoadOptions options(String dataDirectory, boolean parallel, boolean columnar) {
+        return new LoadOptions()
+                .setDataDirectory(dataDirectory)
+                .setParallel(parallel)
+                .setColumnar(columnar);
+    }
+}
@@ -0,0 +1,143 @@
+package bench;
+
+import movies.MyIMDB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the three phases of loading a dataset, the same phases
+ * MovieMain times: constructing the MyIMDB (reading the basics file and
+ * building the indexes that do not need ratings), convertMovieListToMap and
+ * processRatings.  Each phase can only run once per instance, so every
+ * invocation is a single shot against a freshly loaded instance.
+ * <br>
+ * Run with "-prof gc" for the allocation rate of each phase.
+ *
+ * @author Ryan Nowak
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3G")
+public class LoadBenchmark {
+    /**
+     * The dataset being loaded and how.
+     */
+    @State(Scope.Thread)
+    public static class Dataset {
+        /** the directory holding the tsv files, relative to the working directory */
+        @Param(".")
+        public String dataDirectory;
+        /** whether to load the small dataset instead of the full one */
+        @Param("false")
+        public boolean small;
+        /** whether the basics file is parsed in parallel */
+        @Param({"false", "true"})
+        public boolean parallel;
+        /** whether the movies are kept in a columnar store */
+        @Param("false")
+        public boolean columnar;
+
+        /**
+         * Construct a MyIMDB for the dataset.
+         *
+         * @return the instance, with only the basics file read
+         * @throws FileNotFoundException if the dataset is missing
+         */
+        MyIMDB load() throws FileNotFoundException {
+            return new MyIMDB(this.small, Datasets.options(this.dataDirectory, this.parallel, this.columnar));
+        }
+    }
+
+    /**
+     * An instance that has read the basics file, ready to convert.
+     */
+    @State(Scope.Thread)
+    public static class Constructed {
+        /** the instance */
+        MyIMDB imdb;
+
+        /**
+         * Load a fresh instance before each invocation.
+         *
+         * @param dataset the dataset
+         * @throws FileNotFoundException if the dataset is missing
+         */
+        @Setup(Level.Invocation)
+        public void setUp(Dataset dataset) throws FileNotFoundException {
+            this.imdb = dataset.load();
+        }
+    }
+
+    /**
+     * An instance that has been converted to a map, ready for its ratings.
+     */
+    @State(Scope.Thread)
+    public static class Converted {
+        /** the instance */
+        MyIMDB imdb;
+
+        /**
+         * Load and convert a fresh instance before each invocation.
+         *
+         * @param dataset the dataset
+         * @throws FileNotFoundException if the dataset is missing
+         */
+        @Setup(Level.Invocation)
+        public void setUp(Dataset dataset) throws FileNotFoundException {
+            this.imdb = dataset.load();
+            this.imdb.convertMovieListToMap();
+        }
+    }
+
+    /**
+     * Read the basics file.
+     *
+     * @param dataset the dataset
+     * @return the instance, so it is not dead code
+     * @throws FileNotFoundException if the dataset is missing
+     */
+    @Benchmark
+    public MyIMDB construct(Dataset dataset) throws FileNotFoundException {
+        return dataset.load();
+    }
+
+    /**
+     * Convert the movie list to a map.
+     *
+     * @param constructed a freshly constructed instance
+     * @return the instance, so it is not dead code
+     */
+    @Benchmark
+    public MyIMDB convertMovieListToMap(Constructed constructed) {
+        constructed.imdb.convertMovieListToMap();
+        return constructed.imdb;
+    }
+
+    /**
+     * Read the ratings file and build the indexes that need the ratings.
+     *
+     * @param converted a freshly converted instance
+     * @return the instance, so it is not dead code
+     * @throws FileNotFoundException if the dataset is missing
+     */
+    @Benchmark
+    public MyIMDB processRatings(Converted converted) throws FileNotFoundException {
+        converted.imdb.processRatings();
+        return converted.imdb;
+    }
+}
@@ -0,0 +1,189 @@
+package bench;
+
+import movies.Movie;
+import movies.MyIMDB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.FileNotFoundException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput benchmarks of each MyIMDB query method against one loaded dataset.
+ * The queries have the shapes of the commands in input/, at two selectivities:
+ * "narrow" queries match a handful of movies, like most of the commands in
+ * input/, and "broad" ones match a large share of the dataset, e.g.
+ * "CONTAINS MOVIE The".  Every movie of a result is consumed, since some
+ * results are views that only create their movies as they are read.
+ * <br>
+ * Run with "-prof gc" for the allocation rate of each query.
+ *
+ * @author Ryan Nowak
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3G")
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    /** the directory holding the tsv files, relative to the working directory */
+    @Param(".")
+    public String dataDirectory;
+    /** whether to load the small dataset instead of the full one */
+    @Param("false")
+    public boolean small;
+    /** whether the movies are kept in a columnar store */
+    @Param({"false", "true"})
+    public boolean columnar;
+    /** how much of the dataset the queries match, "narrow" or "broad" */
+    @Param({"narrow", "broad"})
+    public String selectivity;
+
+    /** the loaded dataset */
+    private MyIMDB imdb;
+    /** the CONTAINS substring */
+    private String words;
+    /** the LOOKUP ID */
+    private String ID;
+    /** the YEAR_AND_GENRE year */
+    private int year;
+    /** the YEAR_AND_GENRE genre */
+    private String genre;
+    /** the RUNTIME start */
+    private int runtimeStart;
+    /** the RUNTIME end */
+    private int runtimeEnd;
+    /** the MOST_VOTES number of movies */
+    private int mostVotes;
+    /** the TOP number of movies per year */
+    private int topNum;
+    /** the TOP start year */
+    private int topStart;
+    /** the TOP end year */
+    private int topEnd;
+    /** the PREFIX title prefix */
+    private String prefix;
+
+    /**
+     * Load the dataset once and pick the query arguments for the selectivity.
+     *
+     * @throws FileNotFoundException if the dataset is missing
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws FileNotFoundException {
+        this.imdb = new MyIMDB(this.small, Datasets.options(this.dataDirectory, false, this.columnar));
+        this.imdb.convertMovieListToMap();
+        this.imdb.processRatings();
+
+        boolean narrow = this.selectivity.equals("narrow");
+        this.words = narrow ? "The Big Lebowski" : "The";
+        this.ID = narrow ? "tt0081505" : "tt0816692";
+        this.year = narrow ? 1945 : 2010;
+        this.genre = narrow ? "CRIME" : "DRAMA";
+        this.runtimeStart = narrow ? 237 : 90;
+        this.runtimeEnd = narrow ? 240 : 120;
+        this.mostVotes = narrow ? 10 : 1000;
+        this.topNum = 10;
+        this.topStart = narrow ? 2010 : 1990;
+        this.topEnd = narrow ? 2010 : 2019;
+        this.prefix = narrow ? "Star W" : "S";
+    }
+
+    /**
+     * Consume every movie of a result.
+     *
+     * @param movies the result
+     * @param blackhole consumes the movies
+     */
+    private static void consume(Collection<Movie> movies, Blackhole blackhole) {
+        for (Movie movie : movies) {
+            blackhole.consume(movie);
+        }
+    }
+
+    /**
+     * CONTAINS MOVIE words.
+     *
+     * @param blackhole consumes the result
+     */
+    @Benchmark
+    public void contains(Blackhole blackhole) {
+        consume(this.imdb.getMovieTitleWithWords("MOVIE", this.words), blackhole);
+    }
+
+    /**
+     * LOOKUP ID.
+     *
+     * @return the movie
+     */
+    @Benchmark
+    public Movie lookup() {
+        return this.imdb.findMovieByID(this.ID);
+    }
+
+    /**
+     * YEAR_AND_GENRE MOVIE year genre.
+     *
+     * @param blackhole consumes the result
+     */
+    @Benchmark
+    public void yearAndGenre(Blackhole blackhole) {
+        consume(this.imdb.getMoviesByYearAndGenre("MOVIE", this.year, this.genre), blackhole);
+    }
+
+    /**
+     * RUNTIME MOVIE start end.
+     *
+     * @param blackhole consumes the result
+     */
+    @Benchmark
+    public void runtime(Blackhole blackhole) {
+        consume(this.imdb.getMoviesByRuntime("MOVIE", this.runtimeStart, this.runtimeEnd), blackhole);
+    }
+
+    /**
+     * MOST_VOTES num MOVIE.
+     *
+     * @param blackhole consumes the result
+     */
+    @Benchmark
+    public void mostVotes(Blackhole blackhole) {
+        consume(this.imdb.getMoviesMostVotes(this.mostVotes, "MOVIE"), blackhole);
+    }
+
+    /**
+     * TOP num MOVIE start end.
+     *
+     * @param blackhole consumes the result
+     */
+    @Benchmark
+    public void topRated(Blackhole blackhole) {
+        for (List<Movie> movies : this.imdb.getMoviesTopRated(this.topNum, "MOVIE", this.topStart, this.topEnd).values()) {
+            consume(movies, blackhole);
+        }
+    }
+
+    /**
+     * PREFIX MOVIE 10 prefix.
+     *
+     * @param blackhole consumes the result
+     */
+    @Benchmark
+    public void titlePrefix(Blackhole blackhole) {
+        consume(this.imdb.getMoviesWithTitlePrefix(10, "MOVIE", this.prefix), blackhole);
+    }
+}
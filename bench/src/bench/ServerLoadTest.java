@@ -0,0 +1,179 @@
+package bench;
+
+import movies.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A load test of QueryServer: a number of clients connect at once and each
+ * sends the same commands, one at a time, waiting for every reply before it
+ * sends the next.  When all of them are done it prints the throughput and the
+ * latency percentiles of the replies, as the clients saw them.
+ * <br>
+ * The commands are the lines of a command file, e.g. one from input/, without
+ * its blank lines.  Start the server first, e.g. "java MovieMain --server=9000",
+ * and wait for its "Listening on port" line.
+ * <br>
+ * Usage: ServerLoadTest port clients rounds commandFile, e.g.
+ * "9000 64 10 input/input-large.txt", where every client sends the whole
+ * file rounds times.  Clients the server turns away are counted as refused.
+ *
+ * @author Ryan Nowak
+ */
+public class ServerLoadTest {
+    /** the line that ends every reply */
+    private final static String ELAPSED = "Elapsed time (s): ";
+    /** the line that starts an error reply */
+    private final static String ERROR = "Error: ";
+
+    /** the port the server listens on */
+    private final int port;
+    /** the commands each client sends */
+    private final List<String> commands;
+    /** how many times each client sends the commands */
+    private final int rounds;
+    /** the latencies of the replies */
+    private final LatencyHistogram latencies;
+    /** the number of error replies */
+    private final AtomicLong errors;
+    /** the number of clients the server turned away or dropped */
+    private final AtomicLong refused;
+
+    /**
+     * Create a load test.
+     *
+     * @param port the port the server listens on
+     * @param commands the commands each client sends
+     * @param rounds how many times each client sends the commands
+     */
+    public ServerLoadTest(int port, List<String> commands, int rounds) {
+        this.port = port;
+        this.commands = commands;
+        this.rounds = rounds;
+        this.latencies = new LatencyHistogram();
+        this.errors = new AtomicLong();
+        this.refused = new AtomicLong();
+    }
+
+    /**
+     * Run the clients and wait for all of them to finish.
+     *
+     * @param clients the number of clients
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void run(int clients) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>(clients);
+        for (int i = 0; i < clients; ++i) {
+            Thread thread = new Thread(this::client, "client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Send the commands of one client, and time each reply.
+     */
+    private void client() {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port);
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            for (int round = 0; round < this.rounds; ++round) {
+                for (String command : this.commands) {
+                    long start = System.nanoTime();
+                    out.write(command);
+                    out.write('\n');
+                    out.flush();
+                    if (!readReply(in)) {
+                        this.refused.incrementAndGet();
+                        return;
+                    }
+                    this.latencies.record(System.nanoTime() - start);
+                }
+            }
+        } catch (IOException e) {
+            this.refused.incrementAndGet();
+        }
+    }
+
+    /**
+     * Read one reply, up to and including its elapsed time line.
+     *
+     * @param in the connection
+     * @return false if the server closed the connection instead
+     * @throws IOException if the connection fails
+     */
+    private boolean readReply(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(ERROR)) {
+                this.errors.incrementAndGet();
+            } else if (line.startsWith(ELAPSED)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Print the results of the run.
+     *
+     * @param millis how long the run took in milliseconds
+     */
+    private void report(long millis) {
+        long replies = this.latencies.getCount();
+        System.out.println("Replies: " + replies + " in " + (millis / 1000.0) + " s, " +
+                           String.format(Locale.ROOT, "%.1f", replies * 1000.0 / Math.max(millis, 1)) +
+                           " per second");
+        System.out.println(String.format(Locale.ROOT, "Latency: p50=%.3f ms, p90=%.3f ms, p99=%.3f ms, max=%.3f ms",
+                this.latencies.getPercentile(50) / 1e6, this.latencies.getPercentile(90) / 1e6,
+                this.latencies.getPercentile(99) / 1e6, this.latencies.getMax() / 1e6));
+        System.out.println("Errors: " + this.errors.get() + ", refused clients: " + this.refused.get());
+    }
+
+    /**
+     * Run the load test.
+     *
+     * @param args the port, the number of clients, the rounds and the command file
+     * @throws IOException if the command file cannot be read
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 4) {
+            System.err.println("Usage: java bench.ServerLoadTest port clients rounds commandFile");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        int clients = Integer.parseInt(args[1]);
+        int rounds = Integer.parseInt(args[2]);
+        List<String> commands = new ArrayList<>();
+        for (String line : Files.readAllLines(Path.of(args[3]), StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                commands.add(line.strip());
+            }
+        }
+
+        ServerLoadTest test = new ServerLoadTest(port, commands, rounds);
+        long start = System.currentTimeMillis();
+        test.run(clients);
+        test.report(System.currentTimeMillis() - start);
+    }
+}
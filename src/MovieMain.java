@@ -1,7 +1,17 @@
+import movies.LoadOptions;
 import movies.Movie;
 import movies.MyIMDB;
+import movies.QueryCache;
+import movies.QueryMetrics;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -15,9 +25,156 @@ import java.util.Scanner;
  * The input commands need to be redirected from a file to standard input using the run
  * configuration.  Example input commands are in the input/ directory.
  *
+ * Arguments that start with "--" are options rather than a request for the small dataset:
+ * <ul>
+ *     <li>--parallel: parse the basics file in chunks on all cores</li>
+ *     <li>--parallel-scan: answer CONTAINS by scanning on all cores, and sort the
+ *     titles and the runtime and top rated indexes on all cores</li>
+ *     <li>--snapshot=FILE: load from the binary snapshot FILE if it is up to date with
+ *     the tsv files, otherwise build every query index once the ratings are processed
+ *     and write them to it with the movies</li>
+ *     <li>--columnar: keep the movies in a columnar store once the ratings are processed</li>
+ *     <li>--memory: report the heap in use once the dataset is loaded</li>
+ *     <li>--title-index: build a trigram index of the titles for CONTAINS</li>
+ *     <li>--cache=MB: cache the results of repeated commands in MB megabytes
+ *     (16 by default, 0 turns the cache off)</li>
+ *     <li>--data=DIR: read the tsv files from DIR instead of the working directory</li>
+ *     <li>--batch: read all the commands first and answer the CONTAINS commands
+ *     in one shared scan of the titles</li>
+ *     <li>--metrics=FILE: on exit, write the latency and result size metrics of
+ *     the load phases and each command, and the hits and misses of the result cache,
+ *     to FILE as JSON (the STATS command prints them)</li>
+ *     <li>--server=PORT: instead of reading standard input, answer the commands of
+ *     any number of TCP clients on PORT of the loopback address (see QueryServer)</li>
+ * </ul>
+ *
+ * A query command can end with "LIMIT n" and "OFFSET m" clauses, in either order,
+ * to print only a page of its result, e.g. "RUNTIME MOVIE 90 120 LIMIT 20 OFFSET 40"
+ * prints the 41st to 60th matches.  The words of CONTAINS and PREFIX can be
+ * anything, so their clauses follow a "|" separator, e.g.
+ * "CONTAINS MOVIE The | LIMIT 20", and words that end like a clause without
+ * one are searched for as they are.  The pages of MOST_VOTES, TOP and PREFIX are
+ * within the num movies they rank (for TOP, within each year), and keep their
+ * spot numbers.
+ *
  * @author RIT CS
  */
 public class MovieMain {
+    /**
+     * The page of a command's result that is printed, as set by the LIMIT and
+     * OFFSET clauses at the end of the command.
+     */
+    private final static class Page {
+        /** the number of fields of the command before its clauses */
+        private final int length;
+        /** the number of movies skipped */
+        private final int offset;
+        /** the most movies printed */
+        private final int limit;
+
+        /**
+         * Create a page.
+         *
+         * @param length the number of fields before the clauses
+         * @param offset the number of movies skipped
+         * @param limit the most movies printed
+         */
+        private Page(int length, int offset, int limit) {
+            this.length = length;
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        /**
+         * Split the clauses off the end of a command.  Each clause is its
+         * keyword and a number of at least 0, and at least the command and one
+         * argument are left before them.  The clauses of a command that ends
+         * in words must follow the separator, with at least one word before it.
+         *
+         * @param fields the fields of the command
+         * @return the page, which is the whole result if there are no clauses
+         */
+        private static Page of(String[] fields) {
+            // the index of the first word, or 0 if the command does not end in words
+            int words = fields[0].equals(CONTAINS) ? 2 : fields[0].equals(PREFIX) ? 3 : 0;
+            int length = fields.length;
+            int offset = -1;
+            int limit = -1;
+            while (length >= 4) {
+                int value;
+                try {
+                    value = Integer.parseInt(fields[length - 1]);
+                } catch (NumberFormatException e) {
+                    break;
+                }
+                if (value < 0) {
+                    break;
+                } else if (fields[length - 2].equals(LIMIT) && limit < 0) {
+                    limit = value;
+                } else if (fields[length - 2].equals(OFFSET) && offset < 0) {
+                    offset = value;
+                } else {
+                    break;
+                }
+                length -= 2;
+            }
+            if (words > 0 && length < fields.length) {
+                if (length - 1 > words && fields[length - 1].equals(SEPARATOR)) {
+                    --length;
+                } else {
+                    // no separator, so the clauses are part of the words
+                    return new Page(fields.length, 0, Integer.MAX_VALUE);
+                }
+            }
+            return new Page(length, Math.max(0, offset), limit < 0 ? Integer.MAX_VALUE : limit);
+        }
+
+        /**
+         * Is this the whole result?
+         *
+         * @return true if nothing is skipped and there is no limit
+         */
+        private boolean isAll() {
+            return this.offset == 0 && this.limit == Integer.MAX_VALUE;
+        }
+
+        /**
+         * Get the number of movies a ranked query has to find to cover the page.
+         *
+         * @param num the number of movies the query ranks
+         * @return the number up to the end of the page, at most num
+         */
+        private int needed(int num) {
+            return (int) Math.min(num, (long) this.offset + this.limit);
+        }
+
+        /**
+         * Select the page of a result.  A list, which is how the indexed queries
+         * return their movies, is only viewed from the offset, so the skipped
+         * movies are never looked up.
+         *
+         * @param movies the whole result
+         * @return the movies of the page, in the same order
+         */
+        private Iterable<Movie> select(Collection<Movie> movies) {
+            if (movies instanceof List) {
+                List<Movie> list = (List<Movie>) movies;
+                int from = Math.min(this.offset, list.size());
+                return list.subList(from, (int) Math.min(list.size(), (long) from + this.limit));
+            }
+            return () -> movies.stream().skip(this.offset).limit(this.limit).iterator();
+        }
+
+        /**
+         * Get the clauses in their canonical form, to add to the command's cache key.
+         *
+         * @return the clauses, or an empty string for the whole result
+         */
+        private String key() {
+            return isAll() ? "" : " " + LIMIT + " " + this.limit + " " + OFFSET + " " + this.offset;
+        }
+    }
+
     // INPUT COMMANDS
     /** find movie titles that contain a substring */
     private final static String CONTAINS = "CONTAINS";
@@ -31,9 +188,70 @@ public class MovieMain {
     private final static String MOST_VOTES = "MOST_VOTES";
     /** find the top movies over a range of years */
     private final static String TOP = "TOP";
+    /** find the most voted movies whose titles start with a prefix */
+    private final static String PREFIX = "PREFIX";
+    /** print the latency and result size metrics of the commands so far */
+    private final static String STATS = "STATS";
+    /** apply a new ratings file to the loaded movies */
+    private final static String RELOAD_RATINGS = "RELOAD_RATINGS";
+    /** add the new titles of a basics delta file to the loaded movies */
+    private final static String APPEND_TITLES = "APPEND_TITLES";
+
+    // PAGE CLAUSES, at the end of a query command
+    /** print at most this many of the result's movies */
+    private final static String LIMIT = "LIMIT";
+    /** skip this many of the result's movies */
+    private final static String OFFSET = "OFFSET";
+    /** comes before the clauses of a command that ends in words */
+    private final static String SEPARATOR = "|";
+
+    // LOAD PHASES, as they are named in the metrics
+    /** reading the basics file */
+    private final static String LOAD_BASICS = "LOAD_BASICS";
+    /** converting the movie list to a map */
+    private final static String CONVERT_TO_MAP = "CONVERT_TO_MAP";
+    /** reading the ratings file */
+    private final static String LOAD_RATINGS = "LOAD_RATINGS";
+    /** the shared scan that answers a batch of CONTAINS commands */
+    private final static String CONTAINS_BATCH = "CONTAINS_BATCH";
+
+    // COMMAND LINE OPTIONS
+    /** parse the basics file in parallel chunks */
+    private final static String PARALLEL_OPTION = "--parallel";
+    /** scan and sort on all cores */
+    private final static String PARALLEL_SCAN_OPTION = "--parallel-scan";
+    /** load from, or write, a binary snapshot of the dataset */
+    private final static String SNAPSHOT_OPTION = "--snapshot=";
+    /** keep the movies in a columnar store */
+    private final static String COLUMNAR_OPTION = "--columnar";
+    /** report the heap in use after loading */
+    private final static String MEMORY_OPTION = "--memory";
+    /** build a trigram index of the titles */
+    private final static String TITLE_INDEX_OPTION = "--title-index";
+    /** the size of the result cache in megabytes, 0 to turn it off */
+    private final static String CACHE_OPTION = "--cache=";
+    /** answer commands from TCP clients on a port instead of standard input */
+    private final static String SERVER_OPTION = "--server=";
+    /** read the tsv files from a directory other than the working directory */
+    private final static String DATA_OPTION = "--data=";
+    /** read every command before answering, so the scans are shared */
+    private final static String BATCH_OPTION = "--batch";
+    /** write the metrics to a JSON file on exit */
+    private final static String METRICS_OPTION = "--metrics=";
+    /** the size of the result cache in megabytes, when it is not given */
+    private final static int DEFAULT_CACHE_MB = 16;
+
+    /** ends each printed line, as System.out.println does */
+    private final static String NEWLINE = System.lineSeparator();
 
     /** the concrete class that inherits and implements from the IMDB abstract class */
     private final MyIMDB imdb;
+    /** the results of recent commands, or null if they are not cached */
+    private final QueryCache cache;
+    /** the latencies and result sizes of the load phases and each command */
+    private final QueryMetrics metrics = new QueryMetrics(
+            LOAD_BASICS, CONVERT_TO_MAP, LOAD_RATINGS,
+            CONTAINS, LOOKUP, YEAR_AND_GENRE, RUNTIME, MOST_VOTES, TOP, PREFIX, RELOAD_RATINGS, APPEND_TITLES);
 
     /**
      * Instantiate MyIDBM with the small or large dataset, then call three methods
@@ -41,25 +259,37 @@ public class MovieMain {
      * structures to represent them.
      *
      * @param small true if the small dataset is to be used, false for the large one
+     * @param options how the datasets are loaded
+     * @param cacheMegabytes the size of the result cache, 0 for no cache
      * @throws FileNotFoundException if the file cannot be found
      */
-    public MovieMain(boolean small) throws FileNotFoundException {
+    public MovieMain(boolean small, LoadOptions options, int cacheMegabytes) throws FileNotFoundException {
+        // results are weighed by their length in characters
+        this.cache = cacheMegabytes > 0 ? new QueryCache(cacheMegabytes * 1024L * 1024L / Character.BYTES) : null;
+        this.metrics.setCache(this.cache);
+
         // read in the basics movie dataset
         System.out.println("Reading movies into list...");
         long start = System.currentTimeMillis();
-        this.imdb = new MyIMDB(small);
+        long startNanos = System.nanoTime();
+        this.imdb = new MyIMDB(small, options);
+        this.metrics.record(LOAD_BASICS, System.nanoTime() - startNanos, 0);
         System.out.println("Elapsed time (s): " + ((System.currentTimeMillis() - start) / 1000.0));
 
         // convert the list to a map for fast lookup by id
         System.out.println("Converting movie list to map...");
         start = System.currentTimeMillis();
+        startNanos = System.nanoTime();
         this.imdb.convertMovieListToMap();
+        this.metrics.record(CONVERT_TO_MAP, System.nanoTime() - startNanos, 0);
         System.out.println("Elapsed time (s): " + ((System.currentTimeMillis() - start) / 1000.0));
 
         // create in the ratings dataset
         System.out.println("Reading ratings into map...");
         start = System.currentTimeMillis();
+        startNanos = System.nanoTime();
         this.imdb.processRatings();
+        this.metrics.record(LOAD_RATINGS, System.nanoTime() - startNanos, 0);
         System.out.println("Elapsed time (s): " + ((System.currentTimeMillis() - start) / 1000.0));
     }
 
@@ -84,143 +314,550 @@ public class MovieMain {
     /**
      * Handles the contain command query, e.g.: "CONTAINS MOVIE Starman".
      *
+     * A page of the matches is found by streaming them, which stops the scan
+     * once the page is full.
+     *
+     * @param out receives the printed result
      * @param fields the command
+     * @param page the page of the result to print
      */
-    private void processContains(String[] fields) {
+    private void processContains(StringBuilder out, String[] fields, Page page) {
         String words = combineFields(fields, 2);
-        for (Movie movie : this.imdb.getMovieTitleWithWords(fields[1], words.toString())) {
-            System.out.println(movie);
+        if (page.isAll()) {
+            for (Movie movie : this.imdb.getMovieTitleWithWords(fields[1], words)) {
+                println(out, movie);
+            }
+        } else {
+            this.imdb.streamMovieTitleWithWords(fields[1], words)
+                     .skip(page.offset)
+                     .limit(page.limit)
+                     .forEach(movie -> println(out, movie));
         }
     }
 
     /**
      * Handles the lookup command query, e.g.: "LOOKUP tt0081505".
      *
+     * @param out receives the printed result
      * @param ID
      */
-    private void processLookup(String ID) {
-        System.out.println(this.imdb.findMovieByID(ID));
+    private void processLookup(StringBuilder out, String ID) {
+        println(out, this.imdb.findMovieByID(ID));
     }
 
     /**
      * Handle the year-genre command query, e.g. "YEAR_AND_GENRE MOVIE 1945 Crime".
      *
+     * @param out receives the printed result
      * @param type the movie type, e.g. "MOVIE", "TV_SHOW", etc.
      * @param year the year
      * @param genre the genre, e.g. "Crime", "Drama", etc.
+     * @param page the page of the result to print
      */
-    private void processYearAndGenre(String type, int year, String genre) {
-        for (Movie movie : this.imdb.getMoviesByYearAndGenre(type, year, genre)) {
-            System.out.println("\tTITLE: " + movie.getTitle() +
-                    ", TYPE: " + movie.getTitleType() +
-                    ", YEAR: " + movie.getYear() +
-                    ", GENRES: " + movie.getGenres());
+    private void processYearAndGenre(StringBuilder out, String type, int year, String genre, Page page) {
+        for (Movie movie : page.select(this.imdb.getMoviesByYearAndGenre(type, year, genre))) {
+            out.append("\tTITLE: ").append(movie.getTitle())
+                    .append(", TYPE: ").append(movie.getTitleType())
+                    .append(", YEAR: ").append(movie.getYear())
+                    .append(", GENRES: ").append(movie.getGenres())
+                    .append(NEWLINE);
         }
     }
 
     /**
      * Handles the runtime command query, e.g. "RUNTIME MOVIE 237 240".
      *
+     * @param out receives the printed result
      * @param type the movie type, e.g. "MOVIE", "TV_SHOW", etc.
      * @param start the start year (inclusive)
      * @param end the end year (inclusive)
+     * @param page the page of the result to print
      */
-    private void processRuntime(String type, int start, int end) {
-        for (Movie movie : this.imdb.getMoviesByRuntime(type, start, end)) {
-            System.out.println("\tTITLE: " + movie.getTitle() +
-                    ", TYPE: " + movie.getTitleType() +
-                    ", YEAR: " + movie.getYear() +
-                    ", RUNTIME: " + movie.getRuntimeMinutes());
+    private void processRuntime(StringBuilder out, String type, int start, int end, Page page) {
+        for (Movie movie : page.select(this.imdb.getMoviesByRuntime(type, start, end))) {
+            out.append("\tTITLE: ").append(movie.getTitle())
+                    .append(", TYPE: ").append(movie.getTitleType())
+                    .append(", YEAR: ").append(movie.getYear())
+                    .append(", RUNTIME: ").append(movie.getRuntimeMinutes())
+                    .append(NEWLINE);
         }
     }
 
     /**
      * Handle the most-votes command query, e.g. "MOST_VOTES 10 MOVIE".
      *
+     * @param out receives the printed result
      * @param num number of movies to list
      * @param type the movie type, e.g. "MOVIE", "TV_SHOW", etc.
+     * @param page the page of the result to print
      */
-    private void processMostVotes(int num, String type) {
-        int spot = 1;
-        for (Movie movie : this.imdb.getMoviesMostVotes(num, type)) {
-            System.out.println("\t" + spot++ + ": " +
-                    "TITLE: " + movie.getTitle() +
-                    ", TYPE: " + movie.getTitleType() +
-                    ", YEAR: " + movie.getYear() +
-                    ", VOTES: " + movie.getRating().getNumVotes());
+    private void processMostVotes(StringBuilder out, int num, String type, Page page) {
+        int spot = page.offset + 1;
+        for (Movie movie : page.select(this.imdb.getMoviesMostVotes(page.needed(num), type))) {
+            out.append('\t').append(spot++).append(": ")
+                    .append("TITLE: ").append(movie.getTitle())
+                    .append(", TYPE: ").append(movie.getTitleType())
+                    .append(", YEAR: ").append(movie.getYear())
+                    .append(", VOTES: ").append(movie.getRating().getNumVotes())
+                    .append(NEWLINE);
         }
     }
 
     /**
-     * Process the top command query, e.g. "TOP 10 MOVIE 1990 1995".
+     * Process the top command query, e.g. "TOP 10 MOVIE 1990 1995", or with a
+     * minimum number of votes, "TOP 10 MOVIE 1990 1995 100000".
+     * @param out receives the printed result
      * @param num number of top movies
      * @param type the movie type, e.g. "MOVIE", "TV_SHOW", etc.
      * @param start the start year (inclusive)
      * @param end the end year (inclusive)
+     * @param minNumVotes the minimum number of votes a movie needs to be ranked
+     * @param page the page of each year's result to print
      */
-    private void processTop(int num, String type, int start, int end) {
-        Map<Integer, List<Movie>> movies = this.imdb.getMoviesTopRated(num, type, start, end);
+    private void processTop(StringBuilder out, int num, String type, int start, int end, int minNumVotes,
+                            Page page) {
+        Map<Integer, List<Movie>> movies = this.imdb.getMoviesTopRated(page.needed(num), type, start, end,
+                                                                       minNumVotes);
         for (int year = start; year <= end; ++year) {
-            System.out.println("YEAR: " + year);
-            int spot = 1;
+            out.append("YEAR: ").append(year).append(NEWLINE);
+            int spot = page.offset + 1;
             if (movies.containsKey(year)) {
-                for (Movie movie : movies.get(year)) {
-                    System.out.println("\t" + spot++ + ": " +
-                            "TITLE: " + movie.getTitle() +
-                            ", TYPE: " + movie.getTitleType() +
-                            ", RATING: " + movie.getRating().getRating() +
-                            ", VOTES: " + movie.getRating().getNumVotes());
+                for (Movie movie : page.select(movies.get(year))) {
+                    out.append('\t').append(spot++).append(": ")
+                            .append("TITLE: ").append(movie.getTitle())
+                            .append(", TYPE: ").append(movie.getTitleType())
+                            .append(", RATING: ").append(movie.getRating().getRating())
+                            .append(", VOTES: ").append(movie.getRating().getNumVotes())
+                            .append(NEWLINE);
                 }
             }
         }
     }
 
+    /**
+     * Handle the prefix command query, e.g. "PREFIX MOVIE 10 Star W".
+     *
+     * @param out receives the printed result
+     * @param num number of movies to list
+     * @param type the movie type, e.g. "MOVIE", "TV_SHOW", etc.
+     * @param prefix the start of the title
+     * @param page the page of the result to print
+     */
+    private void processPrefix(StringBuilder out, int num, String type, String prefix, Page page) {
+        int spot = page.offset + 1;
+        for (Movie movie : page.select(this.imdb.getMoviesWithTitlePrefix(page.needed(num), type, prefix))) {
+            out.append('\t').append(spot++).append(": ")
+                    .append("TITLE: ").append(movie.getTitle())
+                    .append(", TYPE: ").append(movie.getTitleType())
+                    .append(", YEAR: ").append(movie.getYear())
+                    .append(", VOTES: ").append(movie.getRating().getNumVotes())
+                    .append(NEWLINE);
+        }
+    }
+
+    /**
+     * Handle the reload ratings command, e.g. "RELOAD_RATINGS data/title.ratings.tsv".
+     * The queries that follow see the new ratings, and the result cache is
+     * cleared since the dataset's version changes.
+     *
+     * @param out receives the printed result
+     * @param fileName the new ratings file
+     */
+    private void processReloadRatings(StringBuilder out, String fileName) {
+        try {
+            int changed = this.imdb.reloadRatings(fileName);
+            println(out, "Ratings changed: " + changed);
+        } catch (IOException e) {
+            println(out, "Unable to read " + fileName + ": " + e);
+        }
+    }
+
+    /**
+     * Handle the append titles command, e.g. "APPEND_TITLES data/basics.delta.tsv".
+     * The queries that follow see the new movies, and the result cache is
+     * cleared since the dataset's version changes.
+     *
+     * @param out receives the printed result
+     * @param fileName the basics delta file
+     */
+    private void processAppendTitles(StringBuilder out, String fileName) {
+        try {
+            int added = this.imdb.appendTitles(fileName);
+            println(out, "Titles added: " + added);
+        } catch (IOException e) {
+            println(out, "Unable to read " + fileName + ": " + e);
+        }
+    }
+
     /**
      * Handles processing of the input commands that are intended to be redirected from
      * a file to standard input.  All commands start with the query command in question,
      * along with various additional fields depending on the command.
+     * <br>
+     * The output is buffered, and only flushed when the buffer fills or when the
+     * next command has not arrived yet, so it keeps up with interactive input.
      */
     public void mainLoop() {
         Scanner in = new Scanner(System.in);
+        ResultWriter out = ResultWriter.forStandardOutput();
+        StringBuilder result = new StringBuilder();
+        try {
+            while (true) {
+                // hasNext blocks until the next command arrives
+                flushIfIdle(out);
+                if (!in.hasNext()) {
+                    break;
+                }
+                String line = in.nextLine();
+                out.print("Processing: ").println(line);
+                long start = System.currentTimeMillis();
+                result.setLength(0);
+                execute(line, result);
+                out.print(result);
+                out.println("Elapsed time (s): " + ((System.currentTimeMillis() - start) / 1000.0));
+            }
+        } finally {
+            // whatever was answered before a failing command still gets printed
+            out.flush();
+        }
+        in.close();  // <3 Jim
+    }
+
+    /**
+     * Flush the output if there is no more input ready, before waiting for it.
+     *
+     * @param out the output
+     */
+    private static void flushIfIdle(ResultWriter out) {
+        int available;
+        try {
+            available = System.in.available();
+        } catch (IOException e) {
+            available = 0;
+        }
+        if (available == 0) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Handles processing of the input commands like mainLoop, but reads all of
+     * them first so the CONTAINS commands, which have to scan the titles, can be
+     * answered together in one pass.  The results are printed in command order
+     * exactly as mainLoop prints them, with each CONTAINS command's elapsed
+     * time covering only its printing.
+     */
+    public void batchLoop() {
+        Scanner in = new Scanner(System.in);
+        List<String> lines = new ArrayList<>();
         while (in.hasNext()) {
-            String line = in.nextLine();
-            System.out.println("Processing: " + line);
-            String[] fields = line.split("\\s+");
-            long start = System.currentTimeMillis();
+            lines.add(in.nextLine());
+        }
+        in.close();
 
-            // breakdown the query command here and pass control to the appropriate method
+        // answer the CONTAINS commands up front, keyed by line number.  those
+        // after a reload or an append could print other movies or ratings, so
+        // they are left to be answered in order
+        List<Integer> containsLines = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < lines.size(); ++i) {
+            String[] fields = lines.get(i).split("\\s+");
+            if (fields[0].equals(RELOAD_RATINGS) || fields[0].equals(APPEND_TITLES)) {
+                break;
+            }
+            // a paged CONTAINS streams only its page, so it is not worth a share of the scan
+            if (fields[0].equals(CONTAINS) && fields.length > 1 && Page.of(fields).isAll()) {
+                containsLines.add(i);
+                types.add(fields[1]);
+                words.add(combineFields(fields, 2));
+            }
+        }
+        Map<Integer, Collection<Movie>> answered = new HashMap<>();
+        long scanStart = System.nanoTime();
+        List<Collection<Movie>> results = this.imdb.getMovieTitleWithWords(types, words);
+        this.metrics.record(CONTAINS_BATCH, System.nanoTime() - scanStart, 0);
+        for (int i = 0; i < containsLines.size(); ++i) {
+            if (results.get(i) != null) {
+                answered.put(containsLines.get(i), results.get(i));
+            }
+        }
+
+        ResultWriter out = ResultWriter.forStandardOutput();
+        StringBuilder result = new StringBuilder();
+        try {
+            for (int i = 0; i < lines.size(); ++i) {
+                out.print("Processing: ").println(lines.get(i));
+                long start = System.currentTimeMillis();
+                result.setLength(0);
+                if (answered.containsKey(i)) {
+                    // the scan is recorded as CONTAINS_BATCH, so this is only the printing
+                    long printStart = System.nanoTime();
+                    for (Movie movie : answered.get(i)) {
+                        println(result, movie);
+                    }
+                    this.metrics.record(CONTAINS, System.nanoTime() - printStart, countLines(result, 0));
+                } else {
+                    // commands with unknown types fail here, in order, as in mainLoop
+                    execute(lines.get(i), result);
+                }
+                out.print(result);
+                out.println("Elapsed time (s): " + ((System.currentTimeMillis() - start) / 1000.0));
+            }
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Run one input command.  A command that was run before against the same
+     * dataset is answered from the result cache.
+     *
+     * @param line the command
+     * @return what the command prints, each line ending with a line separator
+     */
+    public String execute(String line) {
+        StringBuilder out = new StringBuilder();
+        execute(line, out);
+        return out.toString();
+    }
+
+    /**
+     * Run one input command, appending what it prints to a buffer.
+     *
+     * @param line the command
+     * @param out receives what the command prints, each line ending with a line separator
+     */
+    public void execute(String line, StringBuilder out) {
+        String[] fields = line.split("\\s+");
+        long start = System.nanoTime();
+        int from = out.length();
+        if (answer(fields, out)) {
+            this.metrics.record(fields[0], System.nanoTime() - start, countLines(out, from));
+        }
+    }
+
+    /**
+     * Answer a command, from the result cache if it can be.
+     *
+     * @param fields the fields of the command
+     * @param out receives what the command prints
+     * @return true if the command was a query, false for STATS or an
+     * unrecognized command
+     */
+    private boolean answer(String[] fields, StringBuilder out) {
+        Page page = Page.of(fields);
+        fields = Arrays.copyOf(fields, page.length);
+        String key = this.cache == null ? null : normalize(fields);
+        if (key != null) {
+            key += page.key();
+        }
+        long version = this.imdb.getVersion();
+        if (key != null) {
+            String cached = this.cache.get(key, version);
+            if (cached != null) {
+                out.append(cached);
+                return true;
+            }
+        }
+
+        // breakdown the query command here and pass control to the appropriate method
+        int from = out.length();
+        switch (fields[0]) {
+            case CONTAINS -> processContains(out, fields, page);
+            case LOOKUP -> processLookup(out, fields[1]);
+            case YEAR_AND_GENRE -> processYearAndGenre(out, fields[1], Integer.parseInt(fields[2]), fields[3], page);
+            case RUNTIME -> processRuntime(out, fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                    page);
+            case MOST_VOTES -> processMostVotes(out, Integer.parseInt(fields[1]), fields[2], page);
+            case TOP -> processTop(out, Integer.parseInt(fields[1]), fields[2],
+                    Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+                    fields.length > 5 ? Integer.parseInt(fields[5]) : MyIMDB.MIN_NUM_VOTES_FOR_TOP_RANKED, page);
+            case PREFIX -> processPrefix(out, Integer.parseInt(fields[2]), fields[1], combineFields(fields, 3), page);
+            case RELOAD_RATINGS -> processReloadRatings(out, combineFields(fields, 1));
+            case APPEND_TITLES -> processAppendTitles(out, combineFields(fields, 1));
+            case STATS -> {
+                this.metrics.print(out, NEWLINE);
+                return false;
+            }
+            default -> {
+                println(out, "Unrecognized command " + fields[0]);
+                return false;
+            }
+        }
+
+        if (key != null) {
+            this.cache.put(key, version, out.substring(from));
+        }
+        return true;
+    }
+
+    /**
+     * Count the lines of a result.
+     *
+     * @param out the buffer holding the result
+     * @param from where the result starts in the buffer
+     * @return the number of lines
+     */
+    private static int countLines(StringBuilder out, int from) {
+        int lines = 0;
+        for (int i = from; i < out.length(); ++i) {
+            if (out.charAt(i) == '\n') {
+                ++lines;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Write the metrics as JSON.
+     *
+     * @param fileName the file to write
+     */
+    public void writeMetrics(String fileName) {
+        try {
+            Files.writeString(Path.of(fileName), this.metrics.toJson());
+        } catch (IOException e) {
+            System.err.println("Unable to write metrics to " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Normalize a command into its cache key, so commands that always print the
+     * same result share one entry: the fields are joined by single spaces, the
+     * numbers are written without leading zeros or signs, and a TOP command's
+     * default minimum number of votes is left out.
+     *
+     * @param fields the fields of the command
+     * @return the key, or null if the command is not cacheable or is malformed
+     */
+    private static String normalize(String[] fields) {
+        String[] key = fields.clone();
+        try {
             switch (fields[0]) {
-                case CONTAINS -> processContains(fields);
-                case LOOKUP -> processLookup(fields[1]);
-                case YEAR_AND_GENRE -> processYearAndGenre(fields[1], Integer.parseInt(fields[2]), fields[3]);
-                case RUNTIME -> processRuntime(fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
-                case MOST_VOTES -> processMostVotes(Integer.parseInt(fields[1]), fields[2]);
-                case TOP -> processTop(Integer.parseInt(fields[1]), fields[2],
-                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
-                default -> System.out.println("Unrecognized command " + fields[0]);
+                case CONTAINS, LOOKUP -> { }
+                case YEAR_AND_GENRE, PREFIX -> normalizeNumbers(key, 2);
+                case RUNTIME -> normalizeNumbers(key, 2, 3);
+                case MOST_VOTES -> normalizeNumbers(key, 1);
+                case TOP -> {
+                    normalizeNumbers(key, 1, 3, 4);
+                    if (key.length > 5) {
+                        normalizeNumbers(key, 5);
+                        if (Integer.parseInt(key[5]) == MyIMDB.MIN_NUM_VOTES_FOR_TOP_RANKED) {
+                            key[5] = "";
+                        }
+                    }
+                }
+                default -> {
+                    return null;
+                }
             }
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return null;    // let the command fail the way it always has
+        }
+        return String.join(" ", key).stripTrailing();
+    }
 
-            System.out.println("Elapsed time (s): " + ((System.currentTimeMillis() - start) / 1000.0));
+    /**
+     * Rewrite number fields of a command in their canonical form.
+     *
+     * @param fields the fields of the command, which are modified
+     * @param positions the positions of the numbers
+     * @throws IndexOutOfBoundsException if a number is missing
+     * @throws NumberFormatException if a number does not parse
+     */
+    private static void normalizeNumbers(String[] fields, int... positions) {
+        for (int position : positions) {
+            fields[position] = Integer.toString(Integer.parseInt(fields[position]));
         }
-        in.close();  // <3 Jim
+    }
+
+    /**
+     * Add a line to a result, ended the way System.out.println ends it.
+     *
+     * @param out the result
+     * @param line the line
+     */
+    private static void println(StringBuilder out, Object line) {
+        out.append(line).append(NEWLINE);
+    }
+
+    /**
+     * Print the heap in use once everything unreachable has been collected, which
+     * after loading is roughly the size of the loaded dataset.
+     */
+    private static void reportMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        System.out.println("Memory used (MB): " + (used / (1024 * 1024)));
     }
 
     /**
      * The main method.
      *
-     * @param args if a command line arg is present, we run with the small dataset,
-     *             otherwise the large.
+     * @param args if a command line arg other than an option is present, we run with
+     *             the small dataset, otherwise the large.
      * @throws FileNotFoundException if the file cannot be found
+     * @throws IOException if the server cannot listen on its port
      */
-    public static void main(String[] args) throws FileNotFoundException{
-        // figure out if we are going to run with the small or large dataset
+    public static void main(String[] args) throws IOException {
+        // figure out if we are going to run with the small or large dataset, and
+        // how it should be loaded
         boolean small = false;
-        if (args.length == 1) {
-            small = true;
+        LoadOptions options = new LoadOptions();
+        boolean reportMemory = false;
+        int cacheMegabytes = DEFAULT_CACHE_MB;
+        int serverPort = -1;
+        boolean batch = false;
+        String metricsFile = null;
+        for (String arg : args) {
+            if (arg.equals(PARALLEL_OPTION)) {
+                options.setParallel(true);
+            } else if (arg.equals(PARALLEL_SCAN_OPTION)) {
+                options.setParallelScan(true);
+            } else if (arg.equals(COLUMNAR_OPTION)) {
+                options.setColumnar(true);
+            } else if (arg.equals(TITLE_INDEX_OPTION)) {
+                options.setTitleIndex(true);
+            } else if (arg.equals(BATCH_OPTION)) {
+                batch = true;
+            } else if (arg.equals(MEMORY_OPTION)) {
+                reportMemory = true;
+            } else if (arg.startsWith(SERVER_OPTION)) {
+                serverPort = Integer.parseInt(arg.substring(SERVER_OPTION.length()));
+            } else if (arg.startsWith(METRICS_OPTION)) {
+                metricsFile = arg.substring(METRICS_OPTION.length());
+            } else if (arg.startsWith(CACHE_OPTION)) {
+                cacheMegabytes = Integer.parseInt(arg.substring(CACHE_OPTION.length()));
+            } else if (arg.startsWith(DATA_OPTION)) {
+                options.setDataDirectory(arg.substring(DATA_OPTION.length()));
+            } else if (arg.startsWith(SNAPSHOT_OPTION)) {
+                options.setSnapshotFile(arg.substring(SNAPSHOT_OPTION.length()));
+            } else {
+                small = true;
+            }
         }
 
         // initialize and pass control to the input command processor
-        MovieMain movieMain = new MovieMain(small);
-        movieMain.mainLoop();
+        MovieMain movieMain = new MovieMain(small, options, cacheMegabytes);
+        if (reportMemory) {
+            reportMemory();
+        }
+        if (metricsFile != null) {
+            // a hook, so the metrics are written however the program ends,
+            // including a server that is stopped
+            String fileName = metricsFile;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> movieMain.writeMetrics(fileName)));
+        }
+        if (serverPort >= 0) {
+            QueryServer server = new QueryServer(movieMain, serverPort);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            server.serve();
+        } else if (batch) {
+            movieMain.batchLoop();
+        } else {
+            movieMain.mainLoop();
+        }
     }
 }
@@ -0,0 +1,220 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server that answers query commands over TCP, so many clients can share one
+ * loaded dataset instead of each running its own JVM.  It listens on a port of
+ * the loopback address, and each connection is a line protocol that uses the
+ * same commands as standard input: the client sends one command per line, and
+ * for each one the server replies with exactly what mainLoop prints for it,
+ * from "Processing: " up to and including the "Elapsed time (s): " line that
+ * ends every reply.  A command that fails gets an "Error: " line in place of
+ * its result, and the connection stays open.
+ * <br>
+ * Each connection is served on its own thread, a virtual thread when the JVM
+ * has them (Java 21 and later) and otherwise a pooled platform thread.  Platform
+ * threads are costly, so on older JVMs at most MAX_PLATFORM_THREADS connections
+ * are served at once, and a connection beyond that gets an "Error: " line and
+ * is closed.  All the connections query the same MovieMain, whose dataset and
+ * indexes are not modified by queries.
+ * <br>
+ * The server runs until stop is called, which closes the listening socket and
+ * every open connection.
+ *
+ * @author Ryan Nowak
+ */
+public class QueryServer {
+    /** the number of connections that can wait to be accepted */
+    private final static int BACKLOG = 128;
+    /** the most connections served at once without virtual threads */
+    private final static int MAX_PLATFORM_THREADS = 256;
+    /** how long an idle pooled platform thread is kept, in seconds */
+    private final static long IDLE_THREAD_SECONDS = 60;
+
+    /** answers the commands */
+    private final MovieMain movieMain;
+    /** the port to listen on */
+    private final int port;
+    /** the connections being served, closed when the server stops */
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    /** the listening socket, or null before serve opens it */
+    private volatile ServerSocket server;
+    /** whether stop has been called */
+    private volatile boolean stopped;
+
+    /**
+     * Create the server.
+     *
+     * @param movieMain answers the commands, with its dataset already loaded
+     * @param port the port to listen on
+     */
+    public QueryServer(MovieMain movieMain, int port) {
+        this.movieMain = movieMain;
+        this.port = port;
+    }
+
+    /**
+     * Create the executor that runs one task per connection.  The virtual
+     * thread executor is looked up reflectively so this compiles and runs on
+     * JVMs that predate it; on those, the platform threads are pooled and
+     * bounded, and a connection that finds them all busy is rejected.
+     *
+     * @return the executor
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_PLATFORM_THREADS, MAX_PLATFORM_THREADS,
+                    IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    /**
+     * Accept and serve connections until the server is stopped.  The open
+     * connections are closed and the executor is shut down before this returns.
+     *
+     * @throws IOException if the port cannot be listened on
+     */
+    public void serve() throws IOException {
+        ExecutorService executor = newConnectionExecutor();
+        try (ServerSocket server = new ServerSocket(this.port, BACKLOG, InetAddress.getLoopbackAddress())) {
+            this.server = server;
+            if (this.stopped) {
+                return;
+            }
+            System.out.println("Listening on port " + server.getLocalPort());
+            while (true) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    if (this.stopped) {
+                        return;
+                    }
+                    throw e;
+                }
+                this.connections.add(socket);
+                try {
+                    executor.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    refuse(socket);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            // a thread blocked reading a connection only wakes up when it is closed
+            for (Socket socket : this.connections) {
+                close(socket);
+            }
+        }
+    }
+
+    /**
+     * Stop the server: close the listening socket, so serve closes the open
+     * connections and returns.  It can be called from any thread, e.g. a
+     * shutdown hook.
+     */
+    public void stop() {
+        this.stopped = true;
+        ServerSocket server = this.server;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // it is closed either way
+            }
+        }
+    }
+
+    /**
+     * Turn away a connection when no thread is free to serve it.
+     *
+     * @param socket the connection
+     */
+    private void refuse(Socket socket) {
+        try {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write("Error: too many connections" + System.lineSeparator());
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, and there is no one left to tell
+        }
+        close(socket);
+    }
+
+    /**
+     * Close a connection and forget it.
+     *
+     * @param socket the connection
+     */
+    private void close(Socket socket) {
+        this.connections.remove(socket);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // it is closed either way
+        }
+    }
+
+    /**
+     * Answer the commands of one connection until the client closes it.
+     *
+     * @param socket the connection
+     */
+    private void serve(Socket socket) {
+        try (BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.write(reply(line));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away, and there is no one left to tell
+        } finally {
+            close(socket);
+        }
+    }
+
+    /**
+     * Run a command and build the reply that mainLoop would print for it.
+     *
+     * @param line the command
+     * @return the reply
+     */
+    private String reply(String line) {
+        String newline = System.lineSeparator();
+        long start = System.currentTimeMillis();
+        String result;
+        try {
+            result = this.movieMain.execute(line);
+        } catch (RuntimeException e) {
+            result = "Error: " + e + newline;
+        }
+        return "Processing: " + line + newline +
+               result +
+               "Elapsed time (s): " + ((System.currentTimeMillis() - start) / 1000.0) + newline;
+    }
+}
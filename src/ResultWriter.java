@@ -0,0 +1,155 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A buffered writer for query results.  System.out is synchronized and flushes
+ * on every println, so printing a large result costs more than computing it.
+ * This writer instead copies the text into a reusable char buffer, encodes it
+ * into a reusable byte buffer, and writes the bytes to a channel only when the
+ * buffer fills or when it is flushed.
+ * <br>
+ * The text is encoded the way System.out encodes it, unmappable characters
+ * included, so the bytes written are the same as printing the text.  Nothing
+ * reaches the channel until flush() is called or the buffer fills, so the
+ * writer must be flushed before anything else writes to the same output.
+ *
+ * @author Ryan Nowak
+ */
+public class ResultWriter {
+    /** the number of chars copied before they are encoded */
+    private final static int CHAR_BUFFER_SIZE = 8 * 1024;
+    /** the number of bytes encoded before they are written */
+    private final static int BYTE_BUFFER_SIZE = 64 * 1024;
+
+    /** where the bytes are written */
+    private final WritableByteChannel channel;
+    /** encodes the chars */
+    private final CharsetEncoder encoder;
+    /** the chars not yet encoded, in write mode */
+    private final CharBuffer chars;
+    /** the bytes not yet written, in write mode */
+    private final ByteBuffer bytes;
+    /** the line separator, as System.out.println writes it */
+    private final String newline;
+
+    /**
+     * Create a writer.
+     *
+     * @param channel where the bytes are written
+     * @param charset the encoding of the text
+     */
+    public ResultWriter(WritableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        // PrintStream replaces the characters it cannot encode, rather than failing
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        this.bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+        this.newline = System.lineSeparator();
+    }
+
+    /**
+     * Create a writer to standard output, in the encoding System.out uses.
+     *
+     * @return the writer
+     */
+    public static ResultWriter forStandardOutput() {
+        String encoding = System.getProperty("stdout.encoding",
+                                             System.getProperty("sun.stdout.encoding"));
+        Charset charset = encoding != null && Charset.isSupported(encoding) ?
+                          Charset.forName(encoding) : Charset.defaultCharset();
+        return new ResultWriter(new FileOutputStream(FileDescriptor.out).getChannel(), charset);
+    }
+
+    /**
+     * Write some text.
+     *
+     * @param text the text
+     * @return this writer
+     */
+    public ResultWriter print(CharSequence text) {
+        int length = text.length();
+        int from = 0;
+        while (from < length) {
+            if (!this.chars.hasRemaining()) {
+                encode();
+            }
+            int to = Math.min(length, from + this.chars.remaining());
+            int position = this.chars.position();
+            // String and StringBuilder copy their chars in bulk
+            if (text instanceof String) {
+                ((String) text).getChars(from, to, this.chars.array(), position);
+            } else if (text instanceof StringBuilder) {
+                ((StringBuilder) text).getChars(from, to, this.chars.array(), position);
+            } else {
+                for (int i = from; i < to; ++i) {
+                    this.chars.array()[position + i - from] = text.charAt(i);
+                }
+            }
+            this.chars.position(position + to - from);
+            from = to;
+        }
+        return this;
+    }
+
+    /**
+     * Write some text and end the line.
+     *
+     * @param text the text
+     * @return this writer
+     */
+    public ResultWriter println(CharSequence text) {
+        return print(text).print(this.newline);
+    }
+
+    /**
+     * Encode the buffered chars into the byte buffer, writing the bytes out
+     * whenever it fills.  A surrogate pair split by the end of the char buffer
+     * stays buffered until the rest of it arrives.
+     */
+    private void encode() {
+        this.chars.flip();
+        while (true) {
+            CoderResult result = this.encoder.encode(this.chars, this.bytes, false);
+            if (result.isOverflow()) {
+                write();
+            } else {
+                break;
+            }
+        }
+        this.chars.compact();
+    }
+
+    /**
+     * Write the encoded bytes to the channel.
+     */
+    private void write() {
+        this.bytes.flip();
+        try {
+            while (this.bytes.hasRemaining()) {
+                this.channel.write(this.bytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.bytes.clear();
+    }
+
+    /**
+     * Write everything buffered to the channel.
+     */
+    public void flush() {
+        encode();
+        write();
+    }
+}
@@ -0,0 +1,210 @@
+package movies;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Reads a tab separated dataset file by splitting it into byte ranges that are
+ * aligned to line boundaries, and parsing the ranges on all cores.  The rows of
+ * each range come back in their own list, and the lists are in file order, so
+ * concatenating them gives exactly the rows a line by line read would.
+ *
+ * @author Ryan Nowak
+ */
+final class ChunkedTsvReader {
+    /** the smallest range worth handing to another thread */
+    private final static long MIN_CHUNK_BYTES = 1 << 20;
+    /** the largest range read into memory at once by one thread */
+    private final static long MAX_CHUNK_BYTES = 64 << 20;
+    /** ranges per core, so that uneven ranges still balance across threads */
+    private final static int CHUNKS_PER_CORE = 4;
+    /** the number of bytes read at a time when searching for a line boundary */
+    private final static int SCAN_BYTES = 8192;
+
+    /**
+     * Not instantiable, all routines are static.
+     */
+    private ChunkedTsvReader() {
+    }
+
+    /**
+     * Read the file, skipping the header line, and convert each remaining line
+     * into a row.  The lines are decoded with the default charset, the same as
+     * a Scanner over the file would.
+     *
+     * @param fileName the name of the tsv file
+     * @param rowParser converts the tab separated fields of a line into a row,
+     *                  or returns null if the line should be skipped
+     * @param <T> the type of row
+     * @return the rows of each range, in file order
+     * @throws FileNotFoundException if the file is not found
+     */
+    static <T> List<List<T>> read(String fileName, Function<String[], T> rowParser)
+            throws FileNotFoundException {
+        Path path = Paths.get(fileName);
+        if (!Files.isRegularFile(path)) {
+            throw new FileNotFoundException(fileName);
+        }
+
+        Charset charset = Charset.defaultCharset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            return IntStream.range(0, bounds.length - 1)
+                    .parallel()
+                    .mapToObj(i -> parseChunk(channel, bounds[i], bounds[i + 1], charset, rowParser))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Split the file after the header line into ranges that each start at the
+     * beginning of a line.
+     *
+     * @param channel the open file
+     * @return the range boundaries, where range i is [bounds[i], bounds[i+1])
+     * @throws IOException if the file cannot be read
+     */
+    private static long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long first = nextLineStart(channel, 0);
+        int cores = Runtime.getRuntime().availableProcessors();
+        long chunk = (size - first) / ((long) cores * CHUNKS_PER_CORE) + 1;
+        chunk = Math.min(MAX_CHUNK_BYTES, Math.max(MIN_CHUNK_BYTES, chunk));
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(first);
+        long pos = first + chunk;
+        while (pos < size) {
+            long bound = nextLineStart(channel, pos);
+            if (bound >= size) {
+                break;
+            }
+            bounds.add(bound);
+            pos = bound + chunk;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Find the start of the first line that begins after a position.
+     *
+     * @param channel the open file
+     * @param pos the position to search from
+     * @return the position just past the next newline, or the file size if there is none
+     * @throws IOException if the file cannot be read
+     */
+    private static long nextLineStart(FileChannel channel, long pos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BYTES);
+        long size = channel.size();
+        while (pos < size) {
+            buffer.clear();
+            int read = channel.read(buffer, pos);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; ++i) {
+                if (buffer.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+        return size;
+    }
+
+    /**
+     * Read one range of the file and convert its lines into rows.
+     *
+     * @param channel the open file, which supports concurrent positional reads
+     * @param start the first byte of the range
+     * @param end the byte after the range
+     * @param charset the charset used to decode the range
+     * @param rowParser converts the fields of a line into a row, or null to skip it
+     * @param <T> the type of row
+     * @return the rows of the range in file order
+     */
+    private static <T> List<T> parseChunk(FileChannel channel, long start, long end,
+                                          Charset charset, Function<String[], T> rowParser) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String text = new String(buffer.array(), 0, buffer.position(), charset);
+
+        List<T> rows = new ArrayList<>();
+        int lineStart = 0;
+        while (lineStart < text.length()) {
+            int newline = text.indexOf('\n', lineStart);
+            if (newline < 0) {
+                newline = text.length();
+            }
+            int lineEnd = newline;
+            if (lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r') {
+                --lineEnd;
+            }
+            if (lineEnd > lineStart) {
+                T row = rowParser.apply(splitTabs(text, lineStart, lineEnd));
+                if (row != null) {
+                    rows.add(row);
+                }
+            }
+            lineStart = newline + 1;
+        }
+        return rows;
+    }
+
+    /**
+     * Split one line of the text into its tab separated fields.
+     *
+     * @param text the text holding the line
+     * @param start the first character of the line
+     * @param end the character after the line
+     * @return the fields
+     */
+    static String[] splitTabs(String text, int start, int end) {
+        int count = 1;
+        for (int i = start; i < end; ++i) {
+            if (text.charAt(i) == '\t') {
+                ++count;
+            }
+        }
+        String[] fields = new String[count];
+        int field = 0;
+        int fieldStart = start;
+        for (int i = start; i < end; ++i) {
+            if (text.charAt(i) == '\t') {
+                fields[field++] = text.substring(fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+        fields[field] = text.substring(fieldStart, end);
+        return fields;
+    }
+}
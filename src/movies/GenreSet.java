@@ -0,0 +1,140 @@
+package movies;
+
+import cs.Genre;
+import cs.MovieMaps;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable set of genres backed by a bitmask, where bit i is set for the
+ * genre with ordinal i.  It iterates in the natural order of Genre, the same
+ * order as a TreeSet of the genres, so it prints the same way.
+ * <br>
+ * There are only a few thousand distinct genre combinations in the dataset,
+ * so the sets are interned and every movie with the same genres shares one
+ * instance.
+ *
+ * @author Ryan Nowak
+ */
+public final class GenreSet extends AbstractSet<Genre> {
+    /** the genres in ordinal order */
+    private final static Genre[] GENRES = Genre.values();
+    /** the interned sets, keyed by the genres field of the basics dataset */
+    private final static Map<String, GenreSet> BY_FIELD = new ConcurrentHashMap<>();
+    /** the interned sets, keyed by mask */
+    private final static Map<Long, GenreSet> BY_MASK = new ConcurrentHashMap<>();
+
+    /** the genres in this set */
+    private final long mask;
+
+    /**
+     * Create the set, meant to be called only when interning.
+     *
+     * @param mask the genres in the set
+     */
+    private GenreSet(long mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * Get the set for a genres field of the basics dataset, e.g. "Crime,Drama".
+     * A missing field is the genre "None".
+     *
+     * @param genres the comma separated genre names, or Movie.NO_FIELD
+     * @return the set of genres
+     * @throws IllegalArgumentException if a genre name is not known
+     */
+    public static GenreSet parse(String genres) {
+        GenreSet set = BY_FIELD.get(genres);
+        if (set == null) {
+            long mask = 0;
+            String[] genreFields = genres.equals(Movie.NO_FIELD) ? new String[]{"None"} : genres.split(",");
+            for (String genre : genreFields) {
+                Genre value = MovieMaps.GENRES.get(genre);
+                if (value == null) {
+                    throw new IllegalArgumentException("unknown genre " + genre);
+                }
+                mask |= bit(value);
+            }
+            set = of(mask);
+            BY_FIELD.putIfAbsent(genres, set);
+        }
+        return set;
+    }
+
+    /**
+     * Get the set for a mask.
+     *
+     * @param mask the genres, bit i is set for the genre with ordinal i
+     * @return the set of genres
+     */
+    public static GenreSet of(long mask) {
+        return BY_MASK.computeIfAbsent(mask, GenreSet::new);
+    }
+
+    /**
+     * Get the bit of a genre.
+     *
+     * @param genre the genre
+     * @return the mask with only the genre's bit set
+     */
+    public static long bit(Genre genre) {
+        return 1L << genre.ordinal();
+    }
+
+    /**
+     * Get the mask of this set.
+     *
+     * @return the genres, bit i is set for the genre with ordinal i
+     */
+    public long mask() {
+        return this.mask;
+    }
+
+    /**
+     * Is a genre in this set?  A single bit test.
+     *
+     * @param genre the genre
+     * @return whether the genre is in the set
+     */
+    public boolean contains(Genre genre) {
+        return (this.mask & bit(genre)) != 0;
+    }
+
+    @Override
+    public boolean contains(Object other) {
+        return other instanceof Genre && contains((Genre) other);
+    }
+
+    @Override
+    public int size() {
+        return Long.bitCount(this.mask);
+    }
+
+    @Override
+    public Iterator<Genre> iterator() {
+        return new Iterator<>() {
+            /** the genres not yet returned */
+            private long remaining = GenreSet.this.mask;
+
+            @Override
+            public boolean hasNext() {
+                return this.remaining != 0;
+            }
+
+            @Override
+            public Genre next() {
+                if (this.remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                int ordinal = Long.numberOfTrailingZeros(this.remaining);
+                this.remaining &= this.remaining - 1;
+                return GENRES[ordinal];
+            }
+        };
+    }
+}
@@ -2,7 +2,9 @@ package movies;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * An abstract class that is responsible for representing the "universal" structures
@@ -27,13 +29,39 @@ public abstract class IMDB {
     /** the adult movie tag in the basics dataset */
     private final static String IS_ADULT = "1";
 
-    /** a list of Movie objects */
+    /** the approximate number of bytes in one line of the basics dataset, used to presize */
+    private final static int BASICS_BYTES_PER_LINE = 80;
+
+    /** a list of Movie objects, in the order of the basics file */
     protected List<Movie> movieList;
-    /** a map of a movie ID (tconst String), to a Movie object */
+    /**
+     * a map of a movie ID (tconst String), to a Movie object.  It is a view of
+     * idIndex over movieList
+     */
     protected Map<String, Movie> movieMap;
+    /** the index from a movie ID (tconst String) to its row in movieList */
+    protected MovieIdIndex idIndex;
+    /**
+     * the columnar store that backs movieList and movieMap once the ratings are
+     * processed, or from the start if the movies come from a snapshot, or null
+     * if the movies are kept as Movie objects
+     */
+    protected MovieStore movieStore;
 
     /** whether we are working with the small dataset or not */
     private final boolean small;
+    /** the path of the basics file */
+    private final String basicsFileName;
+    /** the path of the ratings file */
+    private final String ratingsFileName;
+    /** the binary snapshot file, or null if snapshots are not used */
+    private final String snapshotFile;
+    /** whether the ratings came with the snapshot and need not be processed */
+    private boolean ratingsLoaded;
+    /** whether the movies were loaded from a fresh snapshot */
+    private boolean snapshotLoaded;
+    /** whether the movies move into a columnar store once the ratings are processed */
+    private final boolean columnar;
 
     // THESE ABSTRACT METHODS MUST BE IMPLEMENTED BY THE MyIMDB SUBCLASS
 
@@ -121,47 +149,148 @@ public abstract class IMDB {
      * @throws FileNotFoundException if the basics file is not found
      */
     public IMDB(boolean small) throws FileNotFoundException {
-        this.movieList = new LinkedList<>();
-        this.movieMap = null;
+        this(small, new LoadOptions());
+    }
+
+    /**
+     * Create the IMDB instance using the given load options.  The movieList
+     * ends up in the same order as the basics file whether or not the file is
+     * parsed in parallel.  If a fresh snapshot is configured, the movies are
+     * loaded from it instead, already rated, into the columnar store.
+     *
+     * @param small true if using the small dataset, and large if not
+     * @param options how the datasets are loaded
+     * @throws FileNotFoundException if the basics file is not found
+     */
+    public IMDB(boolean small, LoadOptions options) throws FileNotFoundException {
         this.small = small;
+        this.snapshotFile = options.getSnapshotFile();
+        this.ratingsLoaded = false;
+        this.snapshotLoaded = false;
+        this.columnar = options.isColumnar();
+        this.movieStore = null;
 
         // determine which file to read
-        Scanner in;
-        if (this.small) {
-            in = new Scanner(new File(SMALL_BASICS_TSV));
-        } else {
-            in = new Scanner(new File(TITLE_BASICS_TSV));
+        this.basicsFileName = new File(options.getDataDirectory(),
+                                       this.small ? SMALL_BASICS_TSV : TITLE_BASICS_TSV).getPath();
+        this.ratingsFileName = new File(options.getDataDirectory(),
+                                        this.small ? SMALL_RATINGS_TSV : TITLE_RATINGS_TSV).getPath();
+        String fileName = this.basicsFileName;
+        if (this.snapshotFile != null &&
+                MovieSnapshot.isFresh(this.snapshotFile, fileName, this.ratingsFileName)) {
+            try {
+                // the snapshot holds the columns of the store, so the movies
+                // go straight into it, whatever the columnar option says
+                MovieSnapshot.Dataset dataset = MovieSnapshot.read(this.snapshotFile);
+                this.movieStore = dataset.getStore();
+                this.movieList = this.movieStore;
+                this.idIndex = dataset.getIdIndex();
+                this.movieMap = this.idIndex.asMap(this.movieStore);
+                this.ratingsLoaded = true;
+                this.snapshotLoaded = true;
+                return;
+            } catch (IOException e) {
+                // an unreadable snapshot is rebuilt from the tsv files
+                System.err.println("Ignoring snapshot " + this.snapshotFile + ": " + e.getMessage());
+            }
         }
 
-        // read each movie line by line and add the new Movie object to the end
-        // of movieList using Movie.createMovie()
+        if (options.isParallel()) {
+            addChunks(ChunkedTsvReader.read(fileName, IMDB::parseMovie));
+        } else {
+            File file = new File(fileName);
+            Scanner in = new Scanner(file);
+
+            // presize from the file length so that neither structure keeps
+            // growing while the file is read
+            int expected = (int) Math.min(Integer.MAX_VALUE - 8, file.length() / BASICS_BYTES_PER_LINE + 1);
+            this.movieList = new ArrayList<>(expected);
+            this.idIndex = new MovieIdIndex(expected);
+            this.movieMap = this.idIndex.asMap(this.movieList);
 
-        in.nextLine();     // consume the header line and discard it
-        while (in.hasNext()) {
-            String line = in.nextLine();
-            String[] fields = line.split("\t");
-            if (!fields[4].equals(IS_ADULT)) {     // ignore adult movies
-                Movie movie = Movie.createMovie(fields[0], fields[1],
-                                                fields[2], fields[5],
-                                                fields[7], fields[8]);
+            // read each movie line by line and add the new Movie object to the end
+            // of movieList, and into movieMap, using Movie.createMovie()
+
+            in.nextLine();     // consume the header line and discard it
+            while (in.hasNext()) {
+                String line = in.nextLine();
+                Movie movie = parseMovie(line.split("\t"));
+                if (movie != null) {
+                    this.idIndex.put(movie.getID(), this.movieList.size());
+                    this.movieList.add(movie);
+                }
+            }
+
+            in.close();
+        }
+    }
+
+    /**
+     * Create movieList and movieMap from chunks of movies.  Each chunk is in
+     * file order, so appending them in turn preserves the order of the file.
+     * The exact number of movies is known before anything is added, so nothing
+     * has to grow.
+     *
+     * @param chunks the chunks of movies in order
+     */
+    private void addChunks(List<List<Movie>> chunks) {
+        int size = 0;
+        for (List<Movie> chunk : chunks) {
+            size += chunk.size();
+        }
+        this.movieList = new ArrayList<>(size);
+        this.idIndex = new MovieIdIndex(size);
+        this.movieMap = this.idIndex.asMap(this.movieList);
+        for (List<Movie> chunk : chunks) {
+            for (Movie movie : chunk) {
+                this.idIndex.put(movie.getID(), this.movieList.size());
                 this.movieList.add(movie);
             }
         }
+    }
 
-        in.close();
+    /**
+     * Create the Movie object for one line of the basics dataset.
+     *
+     * @param fields the tab separated fields of the line
+     * @return the new movie, or null if the line is an adult movie and should be ignored
+     */
+    static Movie parseMovie(String[] fields) {
+        if (fields[4].equals(IS_ADULT)) {     // ignore adult movies
+            return null;
+        }
+        return Movie.createMovie(fields[0], fields[1],
+                                 fields[2], fields[5],
+                                 fields[7], fields[8]);
+    }
+
+    /**
+     * Get the rows of movieList, which is how the indexes refer to movies.
+     *
+     * @return the columnar store if there is one, otherwise a view of movieList
+     */
+    protected MovieRows getMovieRows() {
+        return this.movieStore != null ? this.movieStore : MovieRows.of(this.movieList);
     }
 
     /**
      * Convert the movieList created in IMDB's constructor into movieMap -
-     * a HashMap that associates a movie's ID key (tconst string) to a Movie object value.
+     * a map that associates a movie's ID key (tconst string) to a Movie object value.
+     * The constructor now fills idIndex, which movieMap is a view of, while the
+     * basics file is parsed, so this only does work if the map has not been built yet.
      * @rit.pre the constructor has run and movieList has been created and populated with
      *  Movie objects
      */
     public void convertMovieListToMap() {
-        this.movieMap = new HashMap<>();
+        if (this.movieMap != null) {
+            return;
+        }
+        this.idIndex = new MovieIdIndex(this.movieList.size());
+        this.movieMap = this.idIndex.asMap(this.movieList);
 
+        int row = 0;
         for (Movie movie: this.movieList) {
-            this.movieMap.put(movie.getID(), movie);
+            this.idIndex.put(movie.getID(), row++);
         }
     }
 
@@ -170,16 +299,34 @@ public abstract class IMDB {
      * In the event a movie does not have a rating, a new Rating's object should be created
      * for the movie with a rating and numVotes of 0.
      *
+     * If the movies were loaded from a fresh snapshot they already have their
+     * ratings and are already in movieStore, so there is nothing to do.
+     * Otherwise, with the columnar option, the movies are moved into movieStore
+     * and movieList and movieMap become views of it.  The snapshot is written by writeSnapshot, once the subclass has
+     * built its indexes.
+     *
      * @throws FileNotFoundException if the file is not found
      */
     public void processRatings() throws FileNotFoundException {
-        // determine which dataset to use
-        Scanner in;
-        if (this.small) {
-            in = new Scanner(new File(SMALL_RATINGS_TSV));
-        } else {
-            in = new Scanner(new File(TITLE_RATINGS_TSV));
+        if (!this.ratingsLoaded) {
+            readRatings();
+        }
+
+        if (this.columnar && this.movieStore == null) {
+            this.movieStore = new MovieStore(this.movieList);
+            this.movieList = this.movieStore;
+            this.movieMap = this.idIndex.asMap(this.movieStore);
         }
+    }
+
+    /**
+     * Read the ratings dataset into the movies.
+     *
+     * @throws FileNotFoundException if the file is not found
+     */
+    private void readRatings() throws FileNotFoundException {
+        // determine which dataset to use
+        Scanner in = new Scanner(new File(this.ratingsFileName));
 
         // read the ratings in and use the movieMap to find the movie and update
         // its rating.
@@ -189,9 +336,10 @@ public abstract class IMDB {
             String[] fields = nextLine.split("\t");
             double rating = Double.parseDouble(fields[1]);
             int numVotes = Integer.parseInt(fields[2]);
-            if (this.movieMap.containsKey(fields[0])) {
-                Movie movie = this.movieMap.get(fields[0]);
-                movie.setRating(new Rating(fields[0], rating, numVotes));
+            Movie movie = this.movieMap.get(fields[0]);
+            if (movie != null) {
+                // the rating shares the movie's ID, rather than keeping the line's copy
+                movie.setRating(new Rating(movie.getID(), rating, numVotes));
             }
         }
 
@@ -204,5 +352,49 @@ public abstract class IMDB {
         }
 
         in.close();
+        this.ratingsLoaded = true;
+    }
+
+    /**
+     * Read the indexes of the snapshot the movies were loaded from.
+     *
+     * @param titleIndex whether to read the trigram index of the titles, if
+     * the snapshot has one
+     * @return the indexes, or null if the movies were not loaded from a
+     * snapshot or its indexes cannot be read, so they have to be built
+     */
+    MovieSnapshot.Indexes readSnapshotIndexes(boolean titleIndex) {
+        if (!this.snapshotLoaded) {
+            return null;
+        }
+        try {
+            return MovieSnapshot.readIndexes(this.snapshotFile, this.movieList.size(), titleIndex);
+        } catch (IOException e) {
+            System.err.println("Ignoring snapshot indexes " + this.snapshotFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the joined dataset and its indexes to the snapshot, if a snapshot
+     * file is configured.  This is called once the ratings are processed, and
+     * only when the indexes could not be read from a fresh snapshot.
+     *
+     * @rit.pre processRatings has been called
+     * @param indexes builds the indexes over the movies, which is only done
+     * if the snapshot is written
+     */
+    void writeSnapshot(Supplier<MovieSnapshot.Indexes> indexes) {
+        if (this.snapshotFile == null) {
+            return;
+        }
+        try {
+            MovieSnapshot.write(this.snapshotFile, this.basicsFileName, this.ratingsFileName,
+                                this.movieStore != null ? this.movieStore : new MovieStore(this.movieList),
+                                this.idIndex, indexes.get());
+        } catch (IOException e) {
+            // the snapshot only speeds up the next start, so carry on without it
+            System.err.println("Unable to write snapshot " + this.snapshotFile + ": " + e.getMessage());
+        }
     }
 }
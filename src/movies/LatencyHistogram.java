@@ -0,0 +1,134 @@
+package movies;
+
+/**
+ * A histogram of latencies in nanoseconds with logarithmic buckets, in the
+ * style of HdrHistogram.  Each power of two is split into 16 linear buckets,
+ * so a value is recorded to within about 6% of its true value in a fixed
+ * 960 counters, whatever the range from nanoseconds to hours.  Recording is
+ * a few shifts and an increment, cheap enough to time every command.
+ * <br>
+ * The histogram is thread safe, so the connections of the server can record
+ * into the same one.
+ *
+ * @author Ryan Nowak
+ */
+public final class LatencyHistogram {
+    /** the bits of each value that pick its bucket within its power of two */
+    private final static int SUB_BUCKET_BITS = 4;
+    /** the number of buckets per power of two */
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** enough buckets for every non-negative long */
+    private final static int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /** the number of values in each bucket */
+    private final long[] counts;
+    /** the number of values recorded */
+    private long count;
+    /** the largest value recorded */
+    private long max;
+    /** the sum of the values recorded */
+    private long total;
+
+    /**
+     * Create an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new long[BUCKETS];
+        this.count = 0;
+        this.max = 0;
+        this.total = 0;
+    }
+
+    /**
+     * Find the bucket of a value.  The values below 2 * SUB_BUCKETS each have
+     * their own bucket, and above them the bucket is the value's power of two
+     * and its next SUB_BUCKET_BITS bits.
+     *
+     * @param value the value, at least 0
+     * @return the bucket
+     */
+    private static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Find the largest value that falls in a bucket.
+     *
+     * @param bucket the bucket
+     * @return the value
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param nanos the latency in nanoseconds, negative values count as 0
+     */
+    public synchronized void record(long nanos) {
+        long value = Math.max(0, nanos);
+        ++this.counts[bucket(value)];
+        ++this.count;
+        this.max = Math.max(this.max, value);
+        this.total += value;
+    }
+
+    /**
+     * Get the number of values recorded.
+     *
+     * @return the count
+     */
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Get the largest value recorded.
+     *
+     * @return the value in nanoseconds, or 0 if there are none
+     */
+    public synchronized long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Get the mean of the values recorded.
+     *
+     * @return the mean in nanoseconds, or 0 if there are none
+     */
+    public synchronized double getMean() {
+        return this.count == 0 ? 0 : (double) this.total / this.count;
+    }
+
+    /**
+     * Get a percentile of the values recorded, as the highest value of the
+     * bucket it falls in, but never more than the largest value recorded.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the value in nanoseconds, or 0 if there are none
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            seen += this.counts[bucket];
+            if (seen >= rank) {
+                return Math.min(highestValue(bucket), this.max);
+            }
+        }
+        return this.max;
+    }
+}
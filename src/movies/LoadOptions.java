@@ -0,0 +1,160 @@
+package movies;
+
+/**
+ * The options that control how an IMDB instance loads its datasets.  The
+ * default options reproduce the original behavior, where the basics file is
+ * read line by line on a single thread.
+ *
+ * @author Ryan Nowak
+ */
+public final class LoadOptions {
+    /** whether the basics file is split into chunks that are parsed in parallel */
+    private boolean parallel;
+    /** the binary snapshot file to load from and write to, or null for none */
+    private String snapshotFile;
+    /** whether the movies are kept in a columnar MovieStore once the ratings are processed */
+    private boolean columnar;
+    /** whether a trigram index of the titles is built for CONTAINS queries */
+    private boolean titleIndex;
+    /** the directory the tsv files are in, or null for the working directory */
+    private String dataDirectory;
+    /** whether the scans and the sorts of the query indexes run on all cores */
+    private boolean parallelScan;
+
+    /**
+     * Create the default load options.
+     */
+    public LoadOptions() {
+        this.parallel = false;
+        this.snapshotFile = null;
+        this.columnar = false;
+        this.titleIndex = false;
+        this.dataDirectory = null;
+        this.parallelScan = false;
+    }
+
+    /**
+     * Set whether the basics file is parsed in parallel chunks.
+     *
+     * @param parallel true to parse on all cores, false for a single thread
+     * @return these options
+     */
+    public LoadOptions setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    /**
+     * Is the basics file parsed in parallel chunks?
+     *
+     * @return whether parallel parsing is used
+     */
+    public boolean isParallel() {
+        return this.parallel;
+    }
+
+    /**
+     * Set the binary snapshot file.  If it is fresh the dataset is loaded from
+     * it instead of the tsv files, otherwise it is written once the ratings
+     * have been processed.
+     *
+     * @param snapshotFile the snapshot file name, or null for no snapshot
+     * @return these options
+     */
+    public LoadOptions setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        return this;
+    }
+
+    /**
+     * Get the binary snapshot file.
+     *
+     * @return the snapshot file name, or null if there is none
+     */
+    public String getSnapshotFile() {
+        return this.snapshotFile;
+    }
+
+    /**
+     * Set whether the movies are moved into a columnar MovieStore once the
+     * ratings are processed.
+     *
+     * @param columnar true for the columnar store, false for Movie objects
+     * @return these options
+     */
+    public LoadOptions setColumnar(boolean columnar) {
+        this.columnar = columnar;
+        return this;
+    }
+
+    /**
+     * Are the movies kept in a columnar MovieStore?
+     *
+     * @return whether the columnar store is used
+     */
+    public boolean isColumnar() {
+        return this.columnar;
+    }
+
+    /**
+     * Set whether a trigram index of the titles is built for CONTAINS queries.
+     *
+     * @param titleIndex true to build the index
+     * @return these options
+     */
+    public LoadOptions setTitleIndex(boolean titleIndex) {
+        this.titleIndex = titleIndex;
+        return this;
+    }
+
+    /**
+     * Is a trigram index of the titles built?
+     *
+     * @return whether the title index is built
+     */
+    public boolean isTitleIndex() {
+        return this.titleIndex;
+    }
+
+    /**
+     * Set the directory the tsv files are read from, e.g. to pick between
+     * datasets of different sizes.
+     *
+     * @param dataDirectory the directory, or null for the working directory
+     * @return these options
+     */
+    public LoadOptions setDataDirectory(String dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        return this;
+    }
+
+    /**
+     * Get the directory the tsv files are read from.
+     *
+     * @return the directory, or null for the working directory
+     */
+    public String getDataDirectory() {
+        return this.dataDirectory;
+    }
+
+    /**
+     * Set whether the CONTAINS scans, and the sorts of the titles and of the
+     * runtime and top rated indexes, are split across all cores.
+     *
+     * @param parallelScan true for fork-join on all cores, false for a single thread
+     * @return these options
+     */
+    public LoadOptions setParallelScan(boolean parallelScan) {
+        this.parallelScan = parallelScan;
+        return this;
+    }
+
+    /**
+     * Are the scans and index sorts split across all cores?
+     *
+     * @return whether parallel scans are used
+     */
+    public boolean isParallelScan() {
+        return this.parallelScan;
+    }
+}
@@ -4,7 +4,6 @@ import cs.Genre;
 import cs.MovieMaps;
 import cs.TitleType;
 
-import java.util.TreeSet;
 import java.util.Objects;
 import java.util.Set;
 
@@ -28,8 +27,8 @@ public final class Movie implements Comparable<Movie> {
     private final int year;
     /** the runtime length of the movie in minutes */
     private final int runtimeMinutes;
-    /** the genres of this movie */
-    private final Set<Genre> genres;
+    /** the genres of this movie, shared with every movie of the same genres */
+    private final GenreSet genres;
     /** the rating details for this movie */
     private Rating rating;
 
@@ -49,11 +48,7 @@ public final class Movie implements Comparable<Movie> {
     public static Movie createMovie(String ID, String titleType, String title,
                                     String year, String runtimeMinutes, String genres) {
         // determine the genres
-        Set<Genre> genreSet = new TreeSet<>();
-        String[] genreFields = genres.equals(Movie.NO_FIELD) ? new String[]{"None"} : genres.split(",");
-        for (String genre : genreFields) {
-            genreSet.add(MovieMaps.GENRES.get(genre));
-        }
+        GenreSet genreSet = GenreSet.parse(genres);
 
         // create and return the new movie
         return new Movie(ID,
@@ -64,6 +59,23 @@ public final class Movie implements Comparable<Movie> {
                 genreSet);
     }
 
+    /**
+     * Create a new Movie object from fields that have already been sanitized,
+     * e.g. when they are read back from a snapshot.
+     *
+     * @param ID the movie ID (tconst String)
+     * @param titleType the type of movie
+     * @param title the name of the movie
+     * @param year the start year of the movie, 0 if missing
+     * @param runtimeMinutes the runtime length in minutes, 0 if missing
+     * @param genres the genres if the movie
+     * @return a new Movie object
+     */
+    static Movie createMovie(String ID, TitleType titleType, String title,
+                             int year, int runtimeMinutes, GenreSet genres) {
+        return new Movie(ID, titleType, title, year, runtimeMinutes, genres);
+    }
+
     /**
      * The private constructor of a movie, meant to be called only by the
      * Movie.createMovie() factory method.
@@ -76,7 +88,7 @@ public final class Movie implements Comparable<Movie> {
      * @param genres the genres if the movie
      */
     private Movie(String ID, TitleType titleType, String title,
-                  int year, int runtimeMinutes, Set<Genre> genres) {
+                  int year, int runtimeMinutes, GenreSet genres) {
         this.ID = ID;
         this.titleType = titleType;
         this.title = title;
@@ -140,6 +152,27 @@ public final class Movie implements Comparable<Movie> {
         return this.genres;
     }
 
+    /**
+     * Is this movie of a certain genre?  Unlike getGenres().contains() this
+     * is a single bit test.
+     *
+     * @param genre the genre
+     * @return whether the movie has the genre
+     */
+    public boolean hasGenre(Genre genre) {
+        return this.genres.contains(genre);
+    }
+
+    /**
+     * Get the genres of this movie as a mask, where bit i is set for the genre
+     * with ordinal i.
+     *
+     * @return the genre mask
+     */
+    public long getGenreMask() {
+        return this.genres.mask();
+    }
+
     /**
      * Get the rating of this movie.
      *
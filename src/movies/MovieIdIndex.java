@@ -0,0 +1,384 @@
+package movies;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An index from a movie's ID (tconst string) to its row in movieList.  A tconst
+ * is "tt" followed by at least seven digits, so it is encoded as the int value of
+ * its digits and kept in an open addressing table of primitive keys and rows.
+ * A lookup hashes an int, not a string, and the table holds no boxed entries or
+ * references to the ID strings.  The rare ID that does not encode, e.g. one with
+ * extra leading zeros, goes into a small HashMap instead.
+ *
+ * @author Ryan Nowak
+ */
+public final class MovieIdIndex {
+    /** the prefix of every tconst */
+    private final static String PREFIX = "tt";
+    /** the number of digits in a tconst before they stop being zero padded */
+    private final static int PADDED_DIGITS = 7;
+    /** the code of an ID that does not encode as an int */
+    private final static int NO_CODE = -1;
+    /** marks an empty slot of the table */
+    private final static int EMPTY = -1;
+    /** the smallest table */
+    private final static int MIN_CAPACITY = 16;
+
+    /** the encoded ID in each slot of the table */
+    private int[] keys;
+    /** the row in each slot of the table, or EMPTY */
+    private int[] rows;
+    /** the shift that turns a hashed code into a slot, 32 - log2(table length) */
+    private int shift;
+    /** the number of occupied slots */
+    private int size;
+    /** the rows of the IDs that do not encode */
+    private final Map<String, Integer> others;
+
+    /**
+     * Create an empty index sized for a number of movies.
+     *
+     * @param expected the expected number of movies
+     */
+    public MovieIdIndex(int expected) {
+        // a power of two at least twice the size keeps the probe sequences short
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        this.keys = new int[capacity];
+        this.rows = new int[capacity];
+        Arrays.fill(this.rows, EMPTY);
+        this.shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        this.size = 0;
+        this.others = new HashMap<>();
+    }
+
+    /**
+     * Create a copy of an index, which can be added to without changing it.
+     *
+     * @param index the index to copy
+     */
+    private MovieIdIndex(MovieIdIndex index) {
+        this.keys = index.keys.clone();
+        this.rows = index.rows.clone();
+        this.shift = index.shift;
+        this.size = index.size;
+        this.others = new HashMap<>(index.others);
+    }
+
+    /**
+     * Create an index from its table.
+     *
+     * @param keys the encoded ID in each slot
+     * @param rows the row in each slot, or EMPTY
+     * @param size the number of occupied slots
+     * @param others the rows of the IDs that do not encode
+     */
+    private MovieIdIndex(int[] keys, int[] rows, int size, Map<String, Integer> others) {
+        this.keys = keys;
+        this.rows = rows;
+        this.shift = Integer.numberOfLeadingZeros(keys.length) + 1;
+        this.size = size;
+        this.others = others;
+    }
+
+    /**
+     * Write the index to a snapshot.  The table is written as it is, so
+     * reading it back hashes nothing.
+     *
+     * @param out the snapshot
+     * @throws IOException if the write fails
+     */
+    void write(MovieSnapshot.Output out) throws IOException {
+        out.putInts(this.keys);
+        out.putInts(this.rows);
+        out.putInt(this.size);
+        out.putInt(this.others.size());
+        for (Map.Entry<String, Integer> other : this.others.entrySet()) {
+            out.putString(other.getKey());
+            out.putInt(other.getValue());
+        }
+    }
+
+    /**
+     * Read an index written by write().
+     *
+     * @param in the snapshot
+     * @return the index
+     * @throws IOException if the read fails
+     */
+    static MovieIdIndex read(MovieSnapshot.Input in) throws IOException {
+        int[] keys = in.getInts();
+        int[] rows = in.getInts();
+        if (keys.length < MIN_CAPACITY || Integer.bitCount(keys.length) != 1 || rows.length != keys.length) {
+            throw new IOException("snapshot ID index is damaged");
+        }
+        int size = in.getInt();
+        int count = in.getInt();
+        Map<String, Integer> others = new HashMap<>();
+        for (int i = 0; i < count; ++i) {
+            others.put(in.getString(), in.getInt());
+        }
+        return new MovieIdIndex(keys, rows, size, others);
+    }
+
+    /**
+     * Create a copy of this index, so IDs can be added to the copy while this
+     * index is still being read.
+     *
+     * @return the copy
+     */
+    public MovieIdIndex copy() {
+        return new MovieIdIndex(this);
+    }
+
+    /**
+     * Encode a tconst string as an int.  Only IDs that decode back to the same
+     * string are encoded: "tt" followed by exactly seven digits, or by more
+     * digits without a leading zero.
+     *
+     * @param ID the movie ID
+     * @return the non-negative code, or NO_CODE if it does not encode
+     */
+    public static int encode(String ID) {
+        int digits = ID.length() - PREFIX.length();
+        if (digits < PADDED_DIGITS || digits > 10 || !ID.startsWith(PREFIX) ||
+                (digits > PADDED_DIGITS && ID.charAt(PREFIX.length()) == '0')) {
+            return NO_CODE;
+        }
+        long value = 0;
+        for (int i = PREFIX.length(); i < ID.length(); ++i) {
+            char c = ID.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_CODE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value > Integer.MAX_VALUE ? NO_CODE : (int) value;
+    }
+
+    /**
+     * Decode an int back to its tconst string.
+     *
+     * @param code a code returned by encode
+     * @return the movie ID
+     */
+    public static String decode(int code) {
+        String digits = Integer.toString(code);
+        StringBuilder ID = new StringBuilder(PREFIX.length() + PADDED_DIGITS);
+        ID.append(PREFIX);
+        for (int i = digits.length(); i < PADDED_DIGITS; ++i) {
+            ID.append('0');
+        }
+        return ID.append(digits).toString();
+    }
+
+    /**
+     * Compare two encoded IDs the way their tconst strings compare, without
+     * decoding them.  The digits both strings have are compared as numbers,
+     * which for the same number of digits is the string order, and if they
+     * are equal the shorter string comes first.
+     *
+     * @param code1 the first code returned by encode
+     * @param code2 the second code returned by encode
+     * @return less than 0, 0 or greater than 0 as the first ID orders before,
+     * the same as, or after the second
+     */
+    public static int compare(int code1, int code2) {
+        int digits1 = digits(code1);
+        int digits2 = digits(code2);
+        int common = Math.min(digits1, digits2);
+        int prefix1 = code1;
+        for (int i = common; i < digits1; ++i) {
+            prefix1 /= 10;
+        }
+        int prefix2 = code2;
+        for (int i = common; i < digits2; ++i) {
+            prefix2 /= 10;
+        }
+        int result = Integer.compare(prefix1, prefix2);
+        return result != 0 ? result : Integer.compare(digits1, digits2);
+    }
+
+    /**
+     * Count the digits of an encoded ID's tconst string.
+     *
+     * @param code the code
+     * @return the number of digits after the prefix, with the zero padding
+     */
+    private static int digits(int code) {
+        int digits = PADDED_DIGITS;
+        for (long limit = 10_000_000L; code >= limit; limit *= 10) {
+            ++digits;
+        }
+        return digits;
+    }
+
+    /**
+     * Find the slot of the table that holds a code, or the empty slot where it
+     * would go.
+     *
+     * @param code the encoded ID
+     * @return the slot
+     */
+    private int slot(int code) {
+        int mask = this.keys.length - 1;
+        // fibonacci hashing spreads consecutive codes across the whole table
+        int slot = (code * 0x9E3779B9) >>> this.shift;
+        while (this.rows[slot] != EMPTY && this.keys[slot] != code) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Associate an ID with a row.  As in a HashMap, a later row for the same ID
+     * replaces the earlier one.
+     *
+     * @param ID the movie ID
+     * @param row the movie's row in movieList
+     */
+    public void put(String ID, int row) {
+        int code = encode(ID);
+        if (code == NO_CODE) {
+            this.others.put(ID, row);
+            return;
+        }
+        int slot = slot(code);
+        if (this.rows[slot] == EMPTY) {
+            if ((this.size + 1) * 2L > this.keys.length) {
+                grow();
+                slot = slot(code);
+            }
+            ++this.size;
+        }
+        this.keys[slot] = code;
+        this.rows[slot] = row;
+    }
+
+    /**
+     * Double the table and rehash every entry.
+     */
+    private void grow() {
+        int[] oldKeys = this.keys;
+        int[] oldRows = this.rows;
+        this.keys = new int[oldKeys.length * 2];
+        this.rows = new int[oldRows.length * 2];
+        Arrays.fill(this.rows, EMPTY);
+        this.shift = Integer.numberOfLeadingZeros(this.keys.length) + 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldRows[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.rows[slot] = oldRows[i];
+            }
+        }
+    }
+
+    /**
+     * Find the row of a movie by its ID.
+     *
+     * @param ID the movie ID (tconst string)
+     * @return the row, or -1 if there is no such movie
+     */
+    public int findRow(String ID) {
+        int code = encode(ID);
+        if (code == NO_CODE) {
+            Integer row = this.others.get(ID);
+            return row == null ? EMPTY : row;
+        }
+        return this.rows[slot(code)];
+    }
+
+    /**
+     * Get the number of IDs in the index.
+     *
+     * @return the number of IDs
+     */
+    public int size() {
+        return this.size + this.others.size();
+    }
+
+    /**
+     * Get a read only map view that associates each ID with its movie in a list,
+     * for use as movieMap.
+     *
+     * @param movies the list the rows refer to
+     * @return the map view
+     */
+    public Map<String, Movie> asMap(List<Movie> movies) {
+        return new AbstractMap<>() {
+            @Override
+            public Movie get(Object key) {
+                int row = key instanceof String ? findRow((String) key) : EMPTY;
+                return row == EMPTY ? null : movies.get(row);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String && findRow((String) key) != EMPTY;
+            }
+
+            @Override
+            public int size() {
+                return MovieIdIndex.this.size();
+            }
+
+            @Override
+            public Set<Entry<String, Movie>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, Movie>> iterator() {
+                        Iterator<Map.Entry<String, Integer>> other = others.entrySet().iterator();
+                        return new Iterator<>() {
+                            /** the next slot of the table to visit */
+                            private int slot = advance(0);
+
+                            private int advance(int from) {
+                                while (from < keys.length && rows[from] == EMPTY) {
+                                    ++from;
+                                }
+                                return from;
+                            }
+
+                            @Override
+                            public boolean hasNext() {
+                                return this.slot < keys.length || other.hasNext();
+                            }
+
+                            @Override
+                            public Entry<String, Movie> next() {
+                                if (this.slot < keys.length) {
+                                    int row = rows[this.slot];
+                                    String ID = decode(keys[this.slot]);
+                                    this.slot = advance(this.slot + 1);
+                                    return new SimpleImmutableEntry<>(ID, movies.get(row));
+                                }
+                                if (!other.hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                Map.Entry<String, Integer> entry = other.next();
+                                return new SimpleImmutableEntry<>(entry.getKey(), movies.get(entry.getValue()));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return MovieIdIndex.this.size();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,205 @@
+package movies;
+
+import cs.Genre;
+import cs.TitleType;
+
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Access to the fields of the movies in movieList by row, which is how the
+ * indexes refer to movies.  The columnar MovieStore reads each field from its
+ * arrays, and a plain list of Movie objects is adapted with of().
+ *
+ * @author Ryan Nowak
+ */
+public interface MovieRows {
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of movies
+     */
+    int size();
+
+    /**
+     * Get the movie in a row, along with its rating.
+     *
+     * @param row the row
+     * @return the movie
+     */
+    Movie get(int row);
+
+    /**
+     * Get the ID of a row.
+     *
+     * @param row the row
+     * @return the ID (tconst string)
+     */
+    String getID(int row);
+
+    /**
+     * Get the title of a row.
+     *
+     * @param row the row
+     * @return the title
+     */
+    String getTitle(int row);
+
+    /**
+     * Compare the IDs of two rows the way String.compareTo compares them.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @return less than 0, 0 or greater than 0 as the first ID orders before,
+     * the same as, or after the second
+     */
+    default int compareIDs(int row1, int row2) {
+        return getID(row1).compareTo(getID(row2));
+    }
+
+    /**
+     * Compare the titles of two rows the way String.compareTo compares them.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @return less than 0, 0 or greater than 0 as the first title orders
+     * before, the same as, or after the second
+     */
+    default int compareTitles(int row1, int row2) {
+        return getTitle(row1).compareTo(getTitle(row2));
+    }
+
+    /**
+     * Get a test of whether the title of a row contains a substring, the same
+     * as String.contains.  The substring is prepared once for all the rows tested.
+     *
+     * @param words the substring (case sensitive)
+     * @return the test, which is safe to call from many threads
+     */
+    default IntPredicate titleContains(String words) {
+        return row -> getTitle(row).contains(words);
+    }
+
+    /**
+     * Get the type of a row.
+     *
+     * @param row the row
+     * @return the type, or null if it is not known
+     */
+    TitleType getTitleType(int row);
+
+    /**
+     * Get the start year of a row.
+     *
+     * @param row the row
+     * @return the year
+     */
+    int getYear(int row);
+
+    /**
+     * Get the runtime length of a row.
+     *
+     * @param row the row
+     * @return length in minutes
+     */
+    int getRuntimeMinutes(int row);
+
+    /**
+     * Is a row of a certain genre?
+     *
+     * @param row the row
+     * @param genre the genre
+     * @return whether the row has the genre
+     */
+    boolean hasGenre(int row, Genre genre);
+
+    /**
+     * Get the genres of a row as a mask, where bit i is set for the genre with
+     * ordinal i.
+     *
+     * @param row the row
+     * @return the genre mask
+     */
+    long getGenreMask(int row);
+
+    /**
+     * Get the rating of a row.
+     *
+     * @param row the row
+     * @return the rating
+     */
+    double getRating(int row);
+
+    /**
+     * Get the number of votes of a row.
+     *
+     * @param row the row
+     * @return the number of votes
+     */
+    int getNumVotes(int row);
+
+    /**
+     * Adapt a list of Movie objects, whose ratings have been processed.
+     *
+     * @param movies the movies in movieList order
+     * @return the rows of the movies
+     */
+    static MovieRows of(List<Movie> movies) {
+        return new MovieRows() {
+            @Override
+            public int size() {
+                return movies.size();
+            }
+
+            @Override
+            public Movie get(int row) {
+                return movies.get(row);
+            }
+
+            @Override
+            public String getID(int row) {
+                return movies.get(row).getID();
+            }
+
+            @Override
+            public String getTitle(int row) {
+                return movies.get(row).getTitle();
+            }
+
+            @Override
+            public TitleType getTitleType(int row) {
+                return movies.get(row).getTitleType();
+            }
+
+            @Override
+            public int getYear(int row) {
+                return movies.get(row).getYear();
+            }
+
+            @Override
+            public int getRuntimeMinutes(int row) {
+                return movies.get(row).getRuntimeMinutes();
+            }
+
+            @Override
+            public boolean hasGenre(int row, Genre genre) {
+                return movies.get(row).hasGenre(genre);
+            }
+
+            @Override
+            public long getGenreMask(int row) {
+                return movies.get(row).getGenreMask();
+            }
+
+            @Override
+            public double getRating(int row) {
+                return movies.get(row).getRating().getRating();
+            }
+
+            @Override
+            public int getNumVotes(int row) {
+                return movies.get(row).getRating().getNumVotes();
+            }
+        };
+    }
+}
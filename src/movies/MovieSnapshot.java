@@ -0,0 +1,769 @@
+package movies;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A compact binary snapshot of the loaded and joined dataset: the columns of
+ * the columnar store the movies and their ratings are kept in, the index of
+ * their IDs, and the indexes built over them.  The snapshot is written once
+ * after the ratings are processed and the indexes built.  Loading it reads
+ * each column as one array, straight into a MovieStore, so no Movie is created
+ * until a row is read, and nothing is parsed, hashed or sorted again.
+ * <br>
+ * The file starts with a header holding a magic number, the format version,
+ * the modification time and length of both tsv files it was built from, the
+ * number of rows and where the indexes start.  A snapshot whose header does
+ * not match the current files is stale and is ignored.  The header is
+ * followed by the columns, the ID index and then the other indexes, each
+ * array written as its length followed by its elements.
+ *
+ * @author Ryan Nowak
+ */
+final class MovieSnapshot {
+    /** identifies a snapshot file ("IMDB") */
+    private final static int MAGIC = 0x494D4442;
+    /** the version of the format, bumped whenever the layout changes */
+    private final static int VERSION = 3;
+    /** the size of the buffer used when writing and reading */
+    private final static int BUFFER_BYTES = 1 << 20;
+    /** the size of the header in bytes */
+    private final static int HEADER_BYTES = 4 + 4 + 8 * 4 + 4 + 8;
+    /** where the number of rows is in the header, followed by the offset of
+     * the indexes */
+    private final static int ROWS_OFFSET = 4 + 4 + 8 * 4;
+
+    /**
+     * The movies a snapshot holds.
+     */
+    final static class Dataset {
+        /** the movies and their ratings */
+        private final MovieStore store;
+        /** the row of each movie ID */
+        private final MovieIdIndex idIndex;
+
+        /**
+         * Gather the movies.
+         *
+         * @param store the movies and their ratings
+         * @param idIndex the row of each movie ID
+         */
+        private Dataset(MovieStore store, MovieIdIndex idIndex) {
+            this.store = store;
+            this.idIndex = idIndex;
+        }
+
+        /**
+         * Get the movies.
+         *
+         * @return the columnar store of the movies and their ratings
+         */
+        MovieStore getStore() {
+            return this.store;
+        }
+
+        /**
+         * Get the index of the movie IDs.
+         *
+         * @return the index
+         */
+        MovieIdIndex getIdIndex() {
+            return this.idIndex;
+        }
+    }
+
+    /**
+     * The indexes a snapshot holds besides the movies.
+     */
+    final static class Indexes {
+        /** the trigram index of the titles, or null if it was not built */
+        private final TitleTrigramIndex titleIndex;
+        /** the movies by type, year and genre */
+        private final YearGenreIndex yearGenreIndex;
+        /** the movies of each type in runtime order */
+        private final RuntimeIndex runtimeIndex;
+        /** the movies of each type in votes order */
+        private final VotesIndex votesIndex;
+        /** the ranked movies of each type and year */
+        private final TopRatedIndex topRatedIndex;
+        /** the title prefix index */
+        private final TitlePrefixIndex prefixIndex;
+
+        /**
+         * Gather the indexes.
+         *
+         * @param titleIndex the trigram index of the titles, or null
+         * @param yearGenreIndex the movies by type, year and genre
+         * @param runtimeIndex the movies in runtime order
+         * @param votesIndex the movies in votes order
+         * @param topRatedIndex the ranked movies
+         * @param prefixIndex the title prefix index
+         */
+        Indexes(TitleTrigramIndex titleIndex, YearGenreIndex yearGenreIndex, RuntimeIndex runtimeIndex,
+                VotesIndex votesIndex, TopRatedIndex topRatedIndex, TitlePrefixIndex prefixIndex) {
+            this.titleIndex = titleIndex;
+            this.yearGenreIndex = yearGenreIndex;
+            this.runtimeIndex = runtimeIndex;
+            this.votesIndex = votesIndex;
+            this.topRatedIndex = topRatedIndex;
+            this.prefixIndex = prefixIndex;
+        }
+
+        /**
+         * Get the trigram index of the titles.
+         *
+         * @return the index, or null if it was not built or not read
+         */
+        TitleTrigramIndex getTitleIndex() {
+            return this.titleIndex;
+        }
+
+        /**
+         * Get the year and genre index.
+         *
+         * @return the index
+         */
+        YearGenreIndex getYearGenreIndex() {
+            return this.yearGenreIndex;
+        }
+
+        /**
+         * Get the runtime index.
+         *
+         * @return the index
+         */
+        RuntimeIndex getRuntimeIndex() {
+            return this.runtimeIndex;
+        }
+
+        /**
+         * Get the votes index.
+         *
+         * @return the index
+         */
+        VotesIndex getVotesIndex() {
+            return this.votesIndex;
+        }
+
+        /**
+         * Get the top rated index.
+         *
+         * @return the index
+         */
+        TopRatedIndex getTopRatedIndex() {
+            return this.topRatedIndex;
+        }
+
+        /**
+         * Get the title prefix index.
+         *
+         * @return the index
+         */
+        TitlePrefixIndex getPrefixIndex() {
+            return this.prefixIndex;
+        }
+    }
+
+    /**
+     * Writes a snapshot through a buffer.  An array is written as its length
+     * followed by its elements.
+     */
+    final static class Output {
+        /** the snapshot being written */
+        private final FileChannel channel;
+        /** holds what has not been written to the channel yet */
+        private final ByteBuffer buffer;
+        /** the number of bytes written to the channel so far */
+        private long written;
+
+        /**
+         * Create an output at the start of a snapshot.
+         *
+         * @param channel the snapshot being written
+         */
+        private Output(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            this.written = 0;
+        }
+
+        /**
+         * Get the position in the snapshot of the next byte written.
+         *
+         * @return the position
+         */
+        private long position() {
+            return this.written + this.buffer.position();
+        }
+
+        /**
+         * Write out everything in the buffer.
+         *
+         * @throws IOException if the write fails
+         */
+        private void flush() throws IOException {
+            this.written += MovieSnapshot.flush(this.channel, this.buffer);
+        }
+
+        /**
+         * Make sure the buffer has room for some bytes, flushing it if it does not.
+         *
+         * @param bytes the number of bytes
+         * @throws IOException if the write fails
+         */
+        private void room(int bytes) throws IOException {
+            if (this.buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        /**
+         * Write an int.
+         *
+         * @param value the int
+         * @throws IOException if the write fails
+         */
+        void putInt(int value) throws IOException {
+            room(4);
+            this.buffer.putInt(value);
+        }
+
+        /**
+         * Write a long.
+         *
+         * @param value the long
+         * @throws IOException if the write fails
+         */
+        void putLong(long value) throws IOException {
+            room(8);
+            this.buffer.putLong(value);
+        }
+
+        /**
+         * Write the first bytes of an array.
+         *
+         * @param values the bytes
+         * @param length how many of them to write
+         * @throws IOException if the write fails
+         */
+        void putBytes(byte[] values, int length) throws IOException {
+            putInt(length);
+            for (int done = 0; done < length; ) {
+                room(1);
+                int count = Math.min(length - done, this.buffer.remaining());
+                this.buffer.put(values, done, count);
+                done += count;
+            }
+        }
+
+        /**
+         * Write a string as UTF-8.
+         *
+         * @param value the string
+         * @throws IOException if the write fails
+         */
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putBytes(bytes, bytes.length);
+        }
+
+        /**
+         * Write an array of ints.
+         *
+         * @param values the ints
+         * @throws IOException if the write fails
+         */
+        void putInts(int[] values) throws IOException {
+            putInt(values.length);
+            for (int done = 0; done < values.length; ) {
+                room(4);
+                int count = Math.min(values.length - done, this.buffer.remaining() / 4);
+                this.buffer.asIntBuffer().put(values, done, count);
+                this.buffer.position(this.buffer.position() + 4 * count);
+                done += count;
+            }
+        }
+
+        /**
+         * Write an array of longs.
+         *
+         * @param values the longs
+         * @throws IOException if the write fails
+         */
+        void putLongs(long[] values) throws IOException {
+            putInt(values.length);
+            for (int done = 0; done < values.length; ) {
+                room(8);
+                int count = Math.min(values.length - done, this.buffer.remaining() / 8);
+                this.buffer.asLongBuffer().put(values, done, count);
+                this.buffer.position(this.buffer.position() + 8 * count);
+                done += count;
+            }
+        }
+
+        /**
+         * Write an array of floats.
+         *
+         * @param values the floats
+         * @throws IOException if the write fails
+         */
+        void putFloats(float[] values) throws IOException {
+            putInt(values.length);
+            for (int done = 0; done < values.length; ) {
+                room(4);
+                int count = Math.min(values.length - done, this.buffer.remaining() / 4);
+                this.buffer.asFloatBuffer().put(values, done, count);
+                this.buffer.position(this.buffer.position() + 4 * count);
+                done += count;
+            }
+        }
+
+        /**
+         * Write an array of doubles.
+         *
+         * @param values the doubles
+         * @throws IOException if the write fails
+         */
+        void putDoubles(double[] values) throws IOException {
+            putInt(values.length);
+            for (int done = 0; done < values.length; ) {
+                room(8);
+                int count = Math.min(values.length - done, this.buffer.remaining() / 8);
+                this.buffer.asDoubleBuffer().put(values, done, count);
+                this.buffer.position(this.buffer.position() + 8 * count);
+                done += count;
+            }
+        }
+
+        /**
+         * Write an array of arrays of ints.
+         *
+         * @param values the arrays
+         * @throws IOException if the write fails
+         */
+        void putIntArrays(int[][] values) throws IOException {
+            putInt(values.length);
+            for (int[] array : values) {
+                putInts(array);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot through a buffer, in the order Output wrote it.
+     */
+    final static class Input {
+        /** the snapshot being read */
+        private final FileChannel channel;
+        /** holds what has been read from the channel but not yet decoded */
+        private final ByteBuffer buffer;
+        /** the position in the snapshot of the next read from the channel */
+        private long position;
+        /** the size of the snapshot */
+        private final long size;
+
+        /**
+         * Create an input.
+         *
+         * @param channel the snapshot being read
+         * @param position where to start reading
+         * @throws IOException if the size of the snapshot cannot be read
+         */
+        private Input(FileChannel channel, long position) throws IOException {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+            this.buffer.flip();
+            this.position = position;
+            this.size = channel.size();
+        }
+
+        /**
+         * Make sure the buffer holds some bytes, reading more of the snapshot
+         * if it does not.
+         *
+         * @param bytes the number of bytes needed
+         * @throws IOException if the snapshot ends first
+         */
+        private void need(int bytes) throws IOException {
+            if (this.buffer.remaining() >= bytes) {
+                return;
+            }
+            this.buffer.compact();
+            while (this.buffer.position() < bytes) {
+                int read = this.channel.read(this.buffer, this.position);
+                if (read < 0) {
+                    throw new IOException("snapshot is truncated");
+                }
+                this.position += read;
+            }
+            this.buffer.flip();
+        }
+
+        /**
+         * Make sure an array of some length can be in the rest of the snapshot,
+         * so a damaged length fails before it is allocated.
+         *
+         * @param length the length read
+         * @param bytes the number of bytes of each element
+         * @return the length
+         * @throws IOException if the array cannot fit
+         */
+        private int checkLength(int length, int bytes) throws IOException {
+            if (length < 0 || (long) length * bytes > this.buffer.remaining() + this.size - this.position) {
+                throw new IOException("snapshot is damaged");
+            }
+            return length;
+        }
+
+        /**
+         * Read an int.
+         *
+         * @return the int
+         * @throws IOException if the snapshot cannot be read
+         */
+        int getInt() throws IOException {
+            need(4);
+            return this.buffer.getInt();
+        }
+
+        /**
+         * Read a long.
+         *
+         * @return the long
+         * @throws IOException if the snapshot cannot be read
+         */
+        long getLong() throws IOException {
+            need(8);
+            return this.buffer.getLong();
+        }
+
+        /**
+         * Read an array of bytes.  What the buffer does not hold is read
+         * straight into the array.
+         *
+         * @return the bytes
+         * @throws IOException if the snapshot cannot be read
+         */
+        byte[] getBytes() throws IOException {
+            byte[] values = new byte[checkLength(getInt(), 1)];
+            int done = Math.min(values.length, this.buffer.remaining());
+            this.buffer.get(values, 0, done);
+            ByteBuffer rest = ByteBuffer.wrap(values, done, values.length - done);
+            while (rest.hasRemaining()) {
+                int read = this.channel.read(rest, this.position);
+                if (read < 0) {
+                    throw new IOException("snapshot is truncated");
+                }
+                this.position += read;
+            }
+            return values;
+        }
+
+        /**
+         * Read a string written as UTF-8.
+         *
+         * @return the string
+         * @throws IOException if the snapshot cannot be read
+         */
+        String getString() throws IOException {
+            return new String(getBytes(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Read an array of ints.
+         *
+         * @return the ints
+         * @throws IOException if the snapshot cannot be read
+         */
+        int[] getInts() throws IOException {
+            int[] values = new int[checkLength(getInt(), 4)];
+            for (int done = 0; done < values.length; ) {
+                need(4);
+                int count = Math.min(values.length - done, this.buffer.remaining() / 4);
+                this.buffer.asIntBuffer().get(values, done, count);
+                this.buffer.position(this.buffer.position() + 4 * count);
+                done += count;
+            }
+            return values;
+        }
+
+        /**
+         * Read an array of longs.
+         *
+         * @return the longs
+         * @throws IOException if the snapshot cannot be read
+         */
+        long[] getLongs() throws IOException {
+            long[] values = new long[checkLength(getInt(), 8)];
+            for (int done = 0; done < values.length; ) {
+                need(8);
+                int count = Math.min(values.length - done, this.buffer.remaining() / 8);
+                this.buffer.asLongBuffer().get(values, done, count);
+                this.buffer.position(this.buffer.position() + 8 * count);
+                done += count;
+            }
+            return values;
+        }
+
+        /**
+         * Read an array of floats.
+         *
+         * @return the floats
+         * @throws IOException if the snapshot cannot be read
+         */
+        float[] getFloats() throws IOException {
+            float[] values = new float[checkLength(getInt(), 4)];
+            for (int done = 0; done < values.length; ) {
+                need(4);
+                int count = Math.min(values.length - done, this.buffer.remaining() / 4);
+                this.buffer.asFloatBuffer().get(values, done, count);
+                this.buffer.position(this.buffer.position() + 4 * count);
+                done += count;
+            }
+            return values;
+        }
+
+        /**
+         * Read an array of doubles.
+         *
+         * @return the doubles
+         * @throws IOException if the snapshot cannot be read
+         */
+        double[] getDoubles() throws IOException {
+            double[] values = new double[checkLength(getInt(), 8)];
+            for (int done = 0; done < values.length; ) {
+                need(8);
+                int count = Math.min(values.length - done, this.buffer.remaining() / 8);
+                this.buffer.asDoubleBuffer().get(values, done, count);
+                this.buffer.position(this.buffer.position() + 8 * count);
+                done += count;
+            }
+            return values;
+        }
+
+        /**
+         * Read an array of arrays of ints.
+         *
+         * @return the arrays
+         * @throws IOException if the snapshot cannot be read
+         */
+        int[][] getIntArrays() throws IOException {
+            int[][] values = new int[checkLength(getInt(), 4)][];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = getInts();
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Not instantiable, all routines are static.
+     */
+    private MovieSnapshot() {
+    }
+
+    /**
+     * Check whether a snapshot exists and was built from the current tsv files.
+     *
+     * @param snapshotFile the snapshot file name
+     * @param basicsFile the basics dataset file name
+     * @param ratingsFile the ratings dataset file name
+     * @return true if the snapshot can be loaded in place of the tsv files
+     */
+    static boolean isFresh(String snapshotFile, String basicsFile, String ratingsFile) {
+        Path snapshot = Paths.get(snapshotFile);
+        if (!Files.isRegularFile(snapshot)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                // keep reading until the header is full or the file ends
+            }
+            if (header.hasRemaining()) {
+                return false;
+            }
+            header.flip();
+            return header.getInt() == MAGIC &&
+                   header.getInt() == VERSION &&
+                   header.getLong() == modifiedTime(basicsFile) &&
+                   header.getLong() == length(basicsFile) &&
+                   header.getLong() == modifiedTime(ratingsFile) &&
+                   header.getLong() == length(ratingsFile);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the header of a snapshot and check that it is one.
+     *
+     * @param channel the open snapshot
+     * @return the header, positioned at the number of rows
+     * @throws IOException if the file is not a snapshot of this version
+     */
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // keep reading until the header is full or the file ends
+        }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("not a snapshot");
+        }
+        return header.position(ROWS_OFFSET);
+    }
+
+    /**
+     * Read the movies of a snapshot.  Each column is read as one array into
+     * the store, and each movie already has its rating.
+     *
+     * @param snapshotFile the snapshot file name
+     * @return the movies and the index of their IDs
+     * @throws IOException if the snapshot cannot be read
+     */
+    static Dataset read(String snapshotFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(snapshotFile), StandardOpenOption.READ)) {
+            int rows = readHeader(channel).getInt();
+            Input in = new Input(channel, HEADER_BYTES);
+            MovieStore store = MovieStore.read(in);
+            MovieIdIndex idIndex = MovieIdIndex.read(in);
+            if (store.size() != rows) {
+                throw new IOException("snapshot " + snapshotFile + " is damaged");
+            }
+            return new Dataset(store, idIndex);
+        }
+    }
+
+    /**
+     * Read the indexes of a snapshot.  The snapshot must be the one the movies
+     * were read from.
+     *
+     * @param snapshotFile the snapshot file name
+     * @param rows the number of movies read from it
+     * @param titleIndex whether to read the trigram index of the titles, if
+     * the snapshot has one
+     * @return the indexes
+     * @throws IOException if the indexes cannot be read
+     */
+    static Indexes readIndexes(String snapshotFile, int rows, boolean titleIndex) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(snapshotFile), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            if (header.getInt() != rows) {
+                throw new IOException("snapshot has changed");
+            }
+
+            Input in = new Input(channel, header.getLong());
+            YearGenreIndex yearGenreIndex = YearGenreIndex.read(in);
+            RuntimeIndex runtimeIndex = RuntimeIndex.read(in);
+            VotesIndex votesIndex = VotesIndex.read(in);
+            TopRatedIndex topRatedIndex = TopRatedIndex.read(in);
+            TitlePrefixIndex prefixIndex = TitlePrefixIndex.read(in);
+            // the trigram index is last, so it can be left unread
+            TitleTrigramIndex trigramIndex = titleIndex && in.getInt() != 0 ? TitleTrigramIndex.read(in) : null;
+            return new Indexes(trigramIndex, yearGenreIndex, runtimeIndex, votesIndex, topRatedIndex, prefixIndex);
+        }
+    }
+
+    /**
+     * Write a snapshot of the movies and their indexes.  It is written to a
+     * temporary file first and then moved into place, so a reader never sees a
+     * partial snapshot.
+     *
+     * @param snapshotFile the snapshot file name
+     * @param basicsFile the basics dataset file name the movies were read from
+     * @param ratingsFile the ratings dataset file name the ratings were read from
+     * @param store the movies and their ratings
+     * @param idIndex the row of each movie ID
+     * @param indexes the indexes built over the movies
+     * @throws IOException if the snapshot cannot be written
+     */
+    static void write(String snapshotFile, String basicsFile, String ratingsFile,
+                      MovieStore store, MovieIdIndex idIndex, Indexes indexes) throws IOException {
+        Path snapshot = Paths.get(snapshotFile).toAbsolutePath();
+        Path temp = Files.createTempFile(snapshot.getParent(), snapshot.getFileName().toString(), ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(modifiedTime(basicsFile));
+            out.putLong(length(basicsFile));
+            out.putLong(modifiedTime(ratingsFile));
+            out.putLong(length(ratingsFile));
+            out.putInt(store.size());
+            out.putLong(0);     // the offset of the indexes, filled in once it is known
+
+            store.write(out);
+            idIndex.write(out);
+            long indexesStart = out.position();
+            indexes.getYearGenreIndex().write(out);
+            indexes.getRuntimeIndex().write(out);
+            indexes.getVotesIndex().write(out);
+            indexes.getTopRatedIndex().write(out);
+            indexes.getPrefixIndex().write(out);
+            out.putInt(indexes.getTitleIndex() == null ? 0 : 1);
+            if (indexes.getTitleIndex() != null) {
+                indexes.getTitleIndex().write(out);
+            }
+            out.flush();
+
+            ByteBuffer offset = ByteBuffer.allocate(8).putLong(indexesStart);
+            offset.flip();
+            while (offset.hasRemaining()) {
+                channel.write(offset, HEADER_BYTES - 8 + offset.position());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write out everything in the buffer and empty it.
+     *
+     * @param channel the channel to write to
+     * @param out the buffer
+     * @return the number of bytes written
+     * @throws IOException if the write fails
+     */
+    private static int flush(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        int written = out.remaining();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+        return written;
+    }
+
+    /**
+     * Get the modification time of a dataset file.
+     *
+     * @param fileName the file name
+     * @return the modification time in milliseconds
+     * @throws IOException if the file cannot be accessed
+     */
+    private static long modifiedTime(String fileName) throws IOException {
+        return Files.getLastModifiedTime(Paths.get(fileName)).toMillis();
+    }
+
+    /**
+     * Get the length of a dataset file.
+     *
+     * @param fileName the file name
+     * @return the length in bytes
+     * @throws IOException if the file cannot be accessed
+     */
+    private static long length(String fileName) throws IOException {
+        return Files.size(Paths.get(fileName));
+    }
+}
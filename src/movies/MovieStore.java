@@ -0,0 +1,510 @@
+package movies;
+
+import cs.Genre;
+import cs.TitleType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * A columnar (struct of arrays) store of the movies and their ratings.  Each
+ * field of a movie lives in its own primitive array indexed by row, where the
+ * rows are in movieList order, so a query can scan one or two arrays instead
+ * of chasing a Movie, its genre set and its Rating for every row.
+ * <br>
+ * No column holds a String per row.  The IDs are kept encoded as ints by
+ * MovieIdIndex.encode, and the titles as UTF-8 bytes in a TitleArena.  Both
+ * are only decoded when a movie is handed out, and the indexes compare and
+ * match them without decoding.
+ * <br>
+ * As a list the store hands out Movie objects that are lightweight views
+ * created on demand from a row.  They hold the same values as the movies the
+ * store was built from, but setting a rating on a view does not change the store.
+ * The rows are the same as the movieList rows the store was built from, so the
+ * IMDB's idIndex keeps working over the store.
+ *
+ * @author Ryan Nowak
+ */
+public final class MovieStore extends AbstractList<Movie> implements RandomAccess, MovieRows {
+    /** the title types in ordinal order, used to decode the type column */
+    private final static TitleType[] TITLE_TYPES = TitleType.values();
+    /** the type column value of a movie whose type is not known */
+    private final static byte NO_TYPE = -1;
+
+    /** the unique ID (tconst string) of each row, encoded by MovieIdIndex.encode */
+    private final int[] IDs;
+    /** the IDs that do not encode, keyed by row */
+    private final Map<Integer, String> otherIDs;
+    /** the title of each row */
+    private final TitleArena titles;
+    /** the TitleType ordinal of each row, or NO_TYPE */
+    private final byte[] titleTypes;
+    /** the start year of each row */
+    private final int[] years;
+    /** the runtime length in minutes of each row */
+    private final int[] runtimes;
+    /** the genres of each row, bit i is set for the genre with ordinal i */
+    private final long[] genreMasks;
+    /** the rating of each row */
+    private final float[] ratings;
+    /** every distinct rating as a float, in ascending order */
+    private final float[] ratingKeys;
+    /** the double each entry of ratingKeys was created from */
+    private final double[] ratingValues;
+    /** the number of votes of each row */
+    private final int[] numVotes;
+
+    /**
+     * Create the store from movies whose ratings have been processed.
+     *
+     * @param movies the movies in movieList order
+     */
+    public MovieStore(List<Movie> movies) {
+        int size = movies.size();
+        this.IDs = new int[size];
+        this.otherIDs = new HashMap<>();
+        TitleArena.Builder titles = new TitleArena.Builder(size, titleLength(movies));
+        this.titleTypes = new byte[size];
+        this.years = new int[size];
+        this.runtimes = new int[size];
+        this.genreMasks = new long[size];
+        this.ratings = new float[size];
+        this.numVotes = new int[size];
+
+        int row = 0;
+        for (Movie movie : movies) {
+            this.IDs[row] = encodeID(movie.getID(), row, this.otherIDs);
+            titles.add(movie.getTitle());
+            this.titleTypes[row] = movie.getTitleType() == null ? NO_TYPE : (byte) movie.getTitleType().ordinal();
+            this.years[row] = movie.getYear();
+            this.runtimes[row] = movie.getRuntimeMinutes();
+            this.genreMasks[row] = movie.getGenreMask();
+            this.ratings[row] = (float) movie.getRating().getRating();
+            this.numVotes[row] = movie.getRating().getNumVotes();
+            ++row;
+        }
+        this.titles = titles.build();
+
+        // there are only about a hundred distinct ratings, so each float can be
+        // widened back to the exact double it came from with a tiny table
+        Map<Float, Double> distinct = new TreeMap<>();
+        for (Movie movie : movies) {
+            distinct.putIfAbsent((float) movie.getRating().getRating(), movie.getRating().getRating());
+        }
+        this.ratingKeys = keys(distinct);
+        this.ratingValues = values(distinct);
+    }
+
+    /**
+     * Create a store from its columns.
+     *
+     * @param IDs the encoded unique ID (tconst string) of each row
+     * @param otherIDs the IDs that do not encode, keyed by row
+     * @param titles the title of each row
+     * @param titleTypes the TitleType ordinal of each row, or NO_TYPE
+     * @param years the start year of each row
+     * @param runtimes the runtime length in minutes of each row
+     * @param genreMasks the genres of each row
+     * @param ratings the rating of each row
+     * @param numVotes the number of votes of each row
+     * @param distinct every distinct rating as a float, with the double it was created from
+     */
+    private MovieStore(int[] IDs, Map<Integer, String> otherIDs, TitleArena titles, byte[] titleTypes,
+                       int[] years, int[] runtimes, long[] genreMasks, float[] ratings, int[] numVotes,
+                       Map<Float, Double> distinct) {
+        this.IDs = IDs;
+        this.otherIDs = otherIDs;
+        this.titles = titles;
+        this.titleTypes = titleTypes;
+        this.years = years;
+        this.runtimes = runtimes;
+        this.genreMasks = genreMasks;
+        this.ratings = ratings;
+        this.numVotes = numVotes;
+        this.ratingKeys = keys(distinct);
+        this.ratingValues = values(distinct);
+    }
+
+    /**
+     * Write the store's columns to a snapshot.
+     *
+     * @param out the snapshot
+     * @throws IOException if the write fails
+     */
+    void write(MovieSnapshot.Output out) throws IOException {
+        out.putInts(this.IDs);
+        out.putInt(this.otherIDs.size());
+        for (Map.Entry<Integer, String> other : this.otherIDs.entrySet()) {
+            out.putInt(other.getKey());
+            out.putString(other.getValue());
+        }
+        this.titles.write(out);
+        out.putBytes(this.titleTypes, this.titleTypes.length);
+        out.putInts(this.years);
+        out.putInts(this.runtimes);
+        out.putLongs(this.genreMasks);
+        out.putFloats(this.ratings);
+        out.putFloats(this.ratingKeys);
+        out.putDoubles(this.ratingValues);
+        out.putInts(this.numVotes);
+    }
+
+    /**
+     * Read a store written by write().  Each column is read as one array.
+     *
+     * @param in the snapshot
+     * @return the store
+     * @throws IOException if the read fails
+     */
+    static MovieStore read(MovieSnapshot.Input in) throws IOException {
+        int[] IDs = in.getInts();
+        int others = in.getInt();
+        Map<Integer, String> otherIDs = new HashMap<>();
+        for (int i = 0; i < others; ++i) {
+            otherIDs.put(in.getInt(), in.getString());
+        }
+        TitleArena titles = TitleArena.read(in);
+        byte[] titleTypes = in.getBytes();
+        int[] years = in.getInts();
+        int[] runtimes = in.getInts();
+        long[] genreMasks = in.getLongs();
+        float[] ratings = in.getFloats();
+        float[] ratingKeys = in.getFloats();
+        double[] ratingValues = in.getDoubles();
+        int[] numVotes = in.getInts();
+        int size = IDs.length;
+        if (titles.size() != size || titleTypes.length != size || years.length != size ||
+                runtimes.length != size || genreMasks.length != size || ratings.length != size ||
+                numVotes.length != size || ratingValues.length != ratingKeys.length) {
+            throw new IOException("snapshot columns are damaged");
+        }
+
+        Map<Float, Double> distinct = new TreeMap<>();
+        for (int i = 0; i < ratingKeys.length; ++i) {
+            distinct.put(ratingKeys[i], ratingValues[i]);
+        }
+        return new MovieStore(IDs, otherIDs, titles, titleTypes, years, runtimes, genreMasks,
+                              ratings, numVotes, distinct);
+    }
+
+    /**
+     * Encode the ID of a row.
+     *
+     * @param ID the ID (tconst string)
+     * @param row the row
+     * @param otherIDs receives the ID if it does not encode
+     * @return the code, or a negative number if it does not encode
+     */
+    private static int encodeID(String ID, int row, Map<Integer, String> otherIDs) {
+        int code = MovieIdIndex.encode(ID);
+        if (code < 0) {
+            otherIDs.put(row, ID);
+        }
+        return code;
+    }
+
+    /**
+     * Get the total length of the titles of some movies, which is the number
+     * of UTF-8 bytes they take if they are ASCII.
+     *
+     * @param movies the movies
+     * @return the number of chars of their titles
+     */
+    private static long titleLength(List<Movie> movies) {
+        long length = 0;
+        for (Movie movie : movies) {
+            length += movie.getTitle().length();
+        }
+        return length;
+    }
+
+    /**
+     * Get the floats of a rating table.
+     *
+     * @param distinct every distinct rating as a float, with the double it was created from
+     * @return the floats, in ascending order
+     */
+    private static float[] keys(Map<Float, Double> distinct) {
+        float[] keys = new float[distinct.size()];
+        int i = 0;
+        for (float key : distinct.keySet()) {
+            keys[i++] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Get the doubles of a rating table.
+     *
+     * @param distinct every distinct rating as a float, with the double it was created from
+     * @return the doubles, in the order of their floats
+     */
+    private static double[] values(Map<Float, Double> distinct) {
+        double[] values = new double[distinct.size()];
+        int i = 0;
+        for (double value : distinct.values()) {
+            values[i++] = value;
+        }
+        return values;
+    }
+
+    /**
+     * Add ratings to the table of distinct ratings.
+     *
+     * @param ratings the ratings to add
+     * @param count how many of them to add
+     * @return every distinct rating as a float, with the double it was created from
+     */
+    private Map<Float, Double> ratingTable(double[] ratings, int count) {
+        Map<Float, Double> distinct = new TreeMap<>();
+        for (int i = 0; i < this.ratingKeys.length; ++i) {
+            distinct.put(this.ratingKeys[i], this.ratingValues[i]);
+        }
+        for (int i = 0; i < count; ++i) {
+            distinct.putIfAbsent((float) ratings[i], ratings[i]);
+        }
+        return distinct;
+    }
+
+    /**
+     * Create a store with new ratings for some rows.  Only the rating columns
+     * are copied, the others are shared, and this store is not modified.
+     *
+     * @param rows the rows to change
+     * @param ratings the new rating of each of the rows
+     * @param numVotes the new number of votes of each of the rows
+     * @return the new store
+     */
+    public MovieStore withRatings(int[] rows, double[] ratings, int[] numVotes) {
+        float[] newRatings = this.ratings.clone();
+        int[] newNumVotes = this.numVotes.clone();
+        for (int i = 0; i < rows.length; ++i) {
+            newRatings[rows[i]] = (float) ratings[i];
+            newNumVotes[rows[i]] = numVotes[i];
+        }
+        return new MovieStore(this.IDs, this.otherIDs, this.titles, this.titleTypes, this.years,
+                              this.runtimes, this.genreMasks, newRatings, newNumVotes,
+                              ratingTable(ratings, rows.length));
+    }
+
+    /**
+     * Create a store with movies added after the last row.  The columns are
+     * copied with room for the new rows, and this store is not modified.
+     *
+     * @param movies the movies to add, whose ratings have been set
+     * @return the new store
+     */
+    public MovieStore append(List<Movie> movies) {
+        int from = size();
+        int size = from + movies.size();
+        int[] newIDs = Arrays.copyOf(this.IDs, size);
+        Map<Integer, String> newOtherIDs = new HashMap<>(this.otherIDs);
+        TitleArena.Builder newTitles = new TitleArena.Builder(this.titles, movies.size(), titleLength(movies));
+        byte[] newTitleTypes = Arrays.copyOf(this.titleTypes, size);
+        int[] newYears = Arrays.copyOf(this.years, size);
+        int[] newRuntimes = Arrays.copyOf(this.runtimes, size);
+        long[] newGenreMasks = Arrays.copyOf(this.genreMasks, size);
+        float[] newRatings = Arrays.copyOf(this.ratings, size);
+        int[] newNumVotes = Arrays.copyOf(this.numVotes, size);
+        double[] addedRatings = new double[movies.size()];
+
+        int row = from;
+        for (Movie movie : movies) {
+            newIDs[row] = encodeID(movie.getID(), row, newOtherIDs);
+            newTitles.add(movie.getTitle());
+            newTitleTypes[row] = movie.getTitleType() == null ? NO_TYPE : (byte) movie.getTitleType().ordinal();
+            newYears[row] = movie.getYear();
+            newRuntimes[row] = movie.getRuntimeMinutes();
+            newGenreMasks[row] = movie.getGenreMask();
+            newRatings[row] = (float) movie.getRating().getRating();
+            newNumVotes[row] = movie.getRating().getNumVotes();
+            addedRatings[row - from] = movie.getRating().getRating();
+            ++row;
+        }
+        return new MovieStore(newIDs, newOtherIDs, newTitles.build(), newTitleTypes, newYears, newRuntimes,
+                              newGenreMasks, newRatings, newNumVotes,
+                              ratingTable(addedRatings, addedRatings.length));
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of movies
+     */
+    @Override
+    public int size() {
+        return this.IDs.length;
+    }
+
+    /**
+     * Create a view of the movie in a row, along with its rating.  Its ID and
+     * title are decoded, and the movie and its rating share the ID.
+     *
+     * @param row the row
+     * @return the movie
+     */
+    @Override
+    public Movie get(int row) {
+        String ID = getID(row);
+        Movie movie = Movie.createMovie(ID, getTitleType(row), getTitle(row),
+                                        this.years[row], this.runtimes[row],
+                                        GenreSet.of(this.genreMasks[row]));
+        movie.setRating(new Rating(ID, getRating(row), this.numVotes[row]));
+        return movie;
+    }
+
+    /**
+     * Get the ID of a row, decoding it.
+     *
+     * @param row the row
+     * @return the ID (tconst string)
+     */
+    public String getID(int row) {
+        int code = this.IDs[row];
+        return code < 0 ? this.otherIDs.get(row) : MovieIdIndex.decode(code);
+    }
+
+    /**
+     * Compare the IDs of two rows, without decoding those that are encoded.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @return less than 0, 0 or greater than 0 as the first ID orders before,
+     * the same as, or after the second
+     */
+    public int compareIDs(int row1, int row2) {
+        int code1 = this.IDs[row1];
+        int code2 = this.IDs[row2];
+        if (code1 < 0 || code2 < 0) {
+            return getID(row1).compareTo(getID(row2));
+        }
+        return MovieIdIndex.compare(code1, code2);
+    }
+
+    /**
+     * Get the title of a row, decoding it.
+     *
+     * @param row the row
+     * @return the title
+     */
+    public String getTitle(int row) {
+        return this.titles.get(row);
+    }
+
+    /**
+     * Compare the titles of two rows on their bytes.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @return less than 0, 0 or greater than 0 as the first title orders
+     * before, the same as, or after the second
+     */
+    public int compareTitles(int row1, int row2) {
+        return this.titles.compare(row1, row2);
+    }
+
+    /**
+     * Get a test of whether the title of a row contains a substring, which
+     * matches the UTF-8 bytes of the substring against the titles' bytes.
+     *
+     * @param words the substring (case sensitive)
+     * @return the test
+     */
+    public IntPredicate titleContains(String words) {
+        byte[] encoded = words.getBytes(StandardCharsets.UTF_8);
+        return row -> this.titles.contains(row, encoded);
+    }
+
+    /**
+     * Get the type of a row.
+     *
+     * @param row the row
+     * @return the type, or null if it is not known
+     */
+    public TitleType getTitleType(int row) {
+        byte type = this.titleTypes[row];
+        return type == NO_TYPE ? null : TITLE_TYPES[type];
+    }
+
+    /**
+     * Is a row of a certain type?
+     *
+     * @param row the row
+     * @param titleType the type
+     * @return whether the row has the type
+     */
+    public boolean isTitleType(int row, TitleType titleType) {
+        return this.titleTypes[row] == titleType.ordinal();
+    }
+
+    /**
+     * Get the start year of a row.
+     *
+     * @param row the row
+     * @return the year
+     */
+    public int getYear(int row) {
+        return this.years[row];
+    }
+
+    /**
+     * Get the runtime length of a row.
+     *
+     * @param row the row
+     * @return length in minutes
+     */
+    public int getRuntimeMinutes(int row) {
+        return this.runtimes[row];
+    }
+
+    /**
+     * Is a row of a certain genre?
+     *
+     * @param row the row
+     * @param genre the genre
+     * @return whether the row has the genre
+     */
+    public boolean hasGenre(int row, Genre genre) {
+        return (this.genreMasks[row] & GenreSet.bit(genre)) != 0;
+    }
+
+    /**
+     * Get the genres of a row as a mask.
+     *
+     * @param row the row
+     * @return the genre mask, bit i is set for the genre with ordinal i
+     */
+    public long getGenreMask(int row) {
+        return this.genreMasks[row];
+    }
+
+    /**
+     * Get the rating of a row.  The rating is stored as a float and widened
+     * through the table of distinct ratings, so it equals the double it was
+     * created from.
+     *
+     * @param row the row
+     * @return the rating
+     */
+    public double getRating(int row) {
+        return this.ratingValues[Arrays.binarySearch(this.ratingKeys, this.ratings[row])];
+    }
+
+    /**
+     * Get the number of votes of a row.
+     *
+     * @param row the row
+     * @return the number of votes
+     */
+    public int getNumVotes(int row) {
+        return this.numVotes[row];
+    }
+}
@@ -3,8 +3,19 @@ package movies;
 import cs.Genre;
 import cs.TitleType;
 
+import java.io.BufferedReader;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * The subclass of the IMDB abstract class that implements all the required
@@ -14,8 +25,148 @@ import java.util.*;
  * @author Ryan Nowak
  */
 public class MyIMDB extends IMDB {
-    /** The minimum number of votes a movie needs to be considered for top ranking */
-    private final static int MIN_NUM_VOTES_FOR_TOP_RANKED = 1000;
+    /** The minimum number of votes a movie needs to be considered for top ranking, by default */
+    public final static int MIN_NUM_VOTES_FOR_TOP_RANKED = 1000;
+    /** the start of the header line of a basics file */
+    private final static String BASICS_HEADER = "tconst\t";
+
+    /**
+     * An index that is built the first time a query uses it, so a load only
+     * pays for the indexes its queries need.  Queries can run on several
+     * threads, so the first use builds the index under the holder's lock, and
+     * every use after that reads it without locking.
+     *
+     * @param <T> the type of index
+     */
+    private final static class LazyIndex<T> {
+        /** builds the index, or null once it is built */
+        private Supplier<T> build;
+        /** the index, or null until it is built */
+        private volatile T index;
+
+        /**
+         * Create the holder of an index.
+         *
+         * @param index the index if it is already built, otherwise null
+         * @param build builds the index when it is first used
+         */
+        private LazyIndex(T index, Supplier<T> build) {
+            this.index = index;
+            this.build = index == null ? build : null;
+        }
+
+        /**
+         * Get the index, building it if this is its first use.
+         *
+         * @return the index
+         */
+        private T get() {
+            T result = this.index;
+            if (result == null) {
+                synchronized (this) {
+                    result = this.index;
+                    if (result == null) {
+                        result = this.build.get();
+                        this.index = result;
+                        this.build = null;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Get the index if it has been built.
+         *
+         * @return the index, or null if no query has used it yet
+         */
+        private T getIfBuilt() {
+            return this.index;
+        }
+    }
+
+    /**
+     * The movies and every index over them, as one unit.  A query reads the
+     * current snapshot once and uses only it, so when the ratings are reloaded
+     * and a new snapshot is published in a single write, every query sees
+     * either all of the old state or all of the new.  An index may be built
+     * after the snapshot is published, the first time a query uses it, but it
+     * is built from the snapshot's own rows and never changes after that.
+     */
+    private final static class Snapshot {
+        /** the movies, in the order of the basics file */
+        private final List<Movie> movies;
+        /** the columnar store the movies are kept in, or null for Movie objects */
+        private final MovieStore store;
+        /** the rows of the movies, which is how the indexes refer to them */
+        private final MovieRows rows;
+        /** the movies by ID */
+        private final Map<String, Movie> movieMap;
+        /** the trigram index of the titles, or null if CONTAINS always scans */
+        private final TitleTrigramIndex titleIndex;
+        /** the rows in title order, which the indexes ordered by title are built
+         * from, and which stays valid until titles are appended */
+        private final LazyIndex<TitleOrder> titleOrder;
+        /** the movies by type, year and genre */
+        private final LazyIndex<YearGenreIndex> yearGenreIndex;
+        /** the movies of each type in runtime order */
+        private final LazyIndex<RuntimeIndex> runtimeIndex;
+        /** the movies of each type in votes order, only used once the ratings are processed */
+        private final LazyIndex<VotesIndex> votesIndex;
+        /** the ranked movies of each type and year, only used once the ratings are processed */
+        private final LazyIndex<TopRatedIndex> topRatedIndex;
+        /** the title prefix index, only used once the ratings are processed */
+        private final LazyIndex<TitlePrefixIndex> prefixIndex;
+        /** changes whenever the ratings or titles are (re)loaded */
+        private final long version;
+
+        /**
+         * Create a snapshot.  The indexes that are not given are built over
+         * the movies the first time they are used.
+         *
+         * @param movies the movies, which are the columnar store if there is one
+         * @param movieMap the movies by ID
+         * @param titleIndex the trigram index of the titles, or null
+         * @param titleOrder the rows in title order, or null
+         * @param yearGenreIndex the movies by type, year and genre, or null
+         * @param runtimeIndex the movies in runtime order, or null
+         * @param votesIndex the movies in votes order, or null
+         * @param topRatedIndex the ranked movies, or null
+         * @param prefixIndex the title prefix index, or null
+         * @param parallel whether the indexes are sorted on all cores
+         * @param version the version of the dataset
+         */
+        private Snapshot(List<Movie> movies, Map<String, Movie> movieMap,
+                         TitleTrigramIndex titleIndex, TitleOrder titleOrder,
+                         YearGenreIndex yearGenreIndex, RuntimeIndex runtimeIndex,
+                         VotesIndex votesIndex, TopRatedIndex topRatedIndex,
+                         TitlePrefixIndex prefixIndex, boolean parallel, long version) {
+            this.movies = movies;
+            this.store = movies instanceof MovieStore ? (MovieStore) movies : null;
+            this.rows = rowsOf(movies);
+            this.movieMap = movieMap;
+            this.titleIndex = titleIndex;
+            MovieRows rows = this.rows;
+            this.titleOrder = new LazyIndex<>(titleOrder, () -> new TitleOrder(rows, parallel));
+            this.yearGenreIndex = new LazyIndex<>(yearGenreIndex,
+                                                  () -> new YearGenreIndex(rows, this.titleOrder.get()));
+            this.runtimeIndex = new LazyIndex<>(runtimeIndex,
+                                                () -> new RuntimeIndex(rows, this.titleOrder.get(), parallel));
+            this.votesIndex = new LazyIndex<>(votesIndex, () -> new VotesIndex(rows, this.titleOrder.get()));
+            this.topRatedIndex = new LazyIndex<>(topRatedIndex, () -> new TopRatedIndex(rows, parallel));
+            this.prefixIndex = new LazyIndex<>(prefixIndex,
+                                               () -> new TitlePrefixIndex(rows, this.titleOrder.get()));
+            this.version = version;
+        }
+    }
+
+    /** the current movies and indexes, replaced as a whole when they change */
+    private volatile Snapshot snapshot;
+    /** whether the scans and the index sorts run on all cores */
+    private final boolean parallelScan;
+    /** the indexes read from a fresh snapshot, until processRatings has used
+     * the last of them, or null if they are built */
+    private MovieSnapshot.Indexes savedIndexes;
 
     /**
      * Create IMDB using the small or large dataset.
@@ -24,7 +175,376 @@ public class MyIMDB extends IMDB {
      * @throws FileNotFoundException
      */
     public MyIMDB(boolean small) throws FileNotFoundException {
-        super(small);
+        this(small, new LoadOptions());
+    }
+
+    /**
+     * Create IMDB using the small or large dataset, loaded with the given options.
+     * The indexes are built the first time a query uses them, unless the
+     * movies came from a fresh snapshot that holds them.
+     *
+     * @param small true if the small dataset is desired, otherwise the large one
+     * @param options how the datasets are loaded
+     * @throws FileNotFoundException
+     */
+    public MyIMDB(boolean small, LoadOptions options) throws FileNotFoundException {
+        super(small, options);
+        this.parallelScan = options.isParallelScan();
+        boolean parallel = this.parallelScan;
+        List<Movie> movies = this.movieList;
+
+        this.savedIndexes = readSnapshotIndexes(options.isTitleIndex());
+        if (this.savedIndexes != null) {
+            // the snapshot's indexes were built over the same rows; only a
+            // trigram index it was written without has to be built
+            TitleTrigramIndex titleIndex = this.savedIndexes.getTitleIndex();
+            if (titleIndex == null && options.isTitleIndex()) {
+                titleIndex = new TitleTrigramIndex(movies);
+            }
+            this.snapshot = new Snapshot(movies, this.movieMap, titleIndex, null,
+                                         this.savedIndexes.getYearGenreIndex(),
+                                         this.savedIndexes.getRuntimeIndex(),
+                                         null, null, null, parallel, 0);
+        } else {
+            // the trigram index is asked for by its own option, so it is built
+            // up front rather than slowing down the first CONTAINS
+            this.snapshot = new Snapshot(movies, this.movieMap,
+                                         options.isTitleIndex() ? new TitleTrigramIndex(movies) : null,
+                                         null, null, null, null, null, null, parallel, 0);
+        }
+    }
+
+    /**
+     * Read the ratings.  The indexes that rank movies by their ratings are
+     * built the first time a query uses them.  If a snapshot is configured,
+     * every index is instead built now, at the same time, and the snapshot is
+     * written with them.  With indexes from a fresh snapshot, nothing is built
+     * or written.
+     *
+     * @throws FileNotFoundException if the file is not found
+     */
+    @Override
+    public void processRatings() throws FileNotFoundException {
+        super.processRatings();
+        Snapshot current = this.snapshot;
+        MovieSnapshot.Indexes saved = this.savedIndexes;
+        this.savedIndexes = null;
+        // the ratings do not move a title, so the title order and the indexes
+        // that do not rank by rating carry over if they are built
+        Snapshot next = new Snapshot(this.movieList, this.movieMap, current.titleIndex,
+                                     current.titleOrder.getIfBuilt(), current.yearGenreIndex.getIfBuilt(),
+                                     current.runtimeIndex.getIfBuilt(),
+                                     saved == null ? null : saved.getVotesIndex(),
+                                     saved == null ? null : saved.getTopRatedIndex(),
+                                     saved == null ? null : saved.getPrefixIndex(),
+                                     this.parallelScan, current.version + 1);
+        this.snapshot = next;
+        if (saved == null) {
+            writeSnapshot(() -> buildIndexes(next));
+        }
+    }
+
+    /**
+     * Build every index of a snapshot that is not built yet, at the same time,
+     * so they can be written with it.
+     *
+     * @param snapshot the snapshot
+     * @return its indexes
+     */
+    private static MovieSnapshot.Indexes buildIndexes(Snapshot snapshot) {
+        // the title order comes first, since most of the others wait for it
+        snapshot.titleOrder.get();
+        ForkJoinTask<YearGenreIndex> yearGenreIndex = fork(snapshot.yearGenreIndex::get);
+        ForkJoinTask<RuntimeIndex> runtimeIndex = fork(snapshot.runtimeIndex::get);
+        ForkJoinTask<VotesIndex> votesIndex = fork(snapshot.votesIndex::get);
+        ForkJoinTask<TopRatedIndex> topRatedIndex = fork(snapshot.topRatedIndex::get);
+        TitlePrefixIndex prefixIndex = snapshot.prefixIndex.get();
+        return new MovieSnapshot.Indexes(snapshot.titleIndex, yearGenreIndex.join(), runtimeIndex.join(),
+                                         votesIndex.join(), topRatedIndex.join(), prefixIndex);
+    }
+
+    /**
+     * Start building an index on the common fork-join pool.  Joining the task
+     * builds it on the joining thread if no worker has started it yet.
+     *
+     * @param build builds the index
+     * @param <T> the type of index
+     * @return the task, whose join() returns the index
+     */
+    private static <T> ForkJoinTask<T> fork(Callable<T> build) {
+        return ForkJoinTask.adapt(build).fork();
+    }
+
+    /**
+     * Reload the ratings from a new ratings file, such as the one IMDB
+     * republishes every day.  The file is streamed once and compared with the
+     * current ratings, and only the movies whose rating or number of votes
+     * changed get a new Rating.  As in processRatings, a movie the file does not
+     * rate gets a rating and number of votes of 0.
+     * <br>
+     * The current snapshot is not modified.  The changed movies are copied (or,
+     * with the columnar store, only its rating columns), and the indexes ordered
+     * by rating or votes are updated by merging the changed rows back in rather
+     * than sorted again.  Everything else is shared, and the result is published
+     * as a new snapshot in one write, so queries running meanwhile see either
+     * the old ratings or the new ones.
+     *
+     * @rit.pre processRatings has been called
+     * @param fileName the ratings file, in the format of title.ratings.tsv
+     * @return the number of movies whose ratings changed
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized int reloadRatings(String fileName) throws IOException {
+        Snapshot current = this.snapshot;
+        MovieRows rows = current.rows;
+
+        // the new ratings of the changed rows; a later line for a movie wins,
+        // as it does when the ratings are first read
+        Map<Integer, Rating> changes = new HashMap<>();
+        BitSet rated = new BitSet(rows.size());
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            String line = in.readLine();     // consume the header line and discard it
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                int row = this.idIndex.findRow(fields[0]);
+                if (row < 0) {
+                    continue;
+                }
+                double rating = Double.parseDouble(fields[1]);
+                int numVotes = Integer.parseInt(fields[2]);
+                rated.set(row);
+                if (Double.compare(rating, rows.getRating(row)) != 0 || numVotes != rows.getNumVotes(row)) {
+                    changes.put(row, new Rating(rows.getID(row), rating, numVotes));
+                } else {
+                    changes.remove(row);
+                }
+            }
+        }
+        for (int row = rated.nextClearBit(0); row < rows.size(); row = rated.nextClearBit(row + 1)) {
+            if (Double.compare(rows.getRating(row), 0.0) != 0 || rows.getNumVotes(row) != 0) {
+                changes.put(row, new Rating(rows.getID(row), 0.0, 0));
+            }
+        }
+        if (changes.isEmpty()) {
+            return 0;
+        }
+
+        BitSet changed = new BitSet(rows.size());
+        for (int row : changes.keySet()) {
+            changed.set(row);
+        }
+        List<Movie> movies = withRatings(current.movies, changes);
+        MovieRows newRows = rowsOf(movies);
+        VotesIndex votesIndex = current.votesIndex.getIfBuilt();
+        TopRatedIndex topRatedIndex = current.topRatedIndex.getIfBuilt();
+        TitlePrefixIndex prefixIndex = current.prefixIndex.getIfBuilt();
+        // the titles did not change, so the title order and the indexes that do
+        // not rank by rating carry over, and an index no query has built yet
+        // is left to be built from the new rows
+        publish(new Snapshot(movies, this.idIndex.asMap(movies), current.titleIndex,
+                             current.titleOrder.getIfBuilt(), current.yearGenreIndex.getIfBuilt(),
+                             current.runtimeIndex.getIfBuilt(),
+                             votesIndex == null ? null : votesIndex.update(changed, newRows),
+                             topRatedIndex == null ? null : topRatedIndex.update(changed, newRows),
+                             prefixIndex == null ? null : prefixIndex.update(changed, newRows),
+                             this.parallelScan, current.version + 1));
+        return changes.size();
+    }
+
+    /**
+     * Add the new titles of a basics delta file, such as the rows added to
+     * title.basics.tsv since it was loaded.  The file has the format of the
+     * basics file, with or without its header line, and its lines are parsed by
+     * the same rules as the constructor's: adult titles are left out and \N
+     * fields become 0.  The new movies are added after the last row in file
+     * order, and each index is updated with only the new rows instead of being
+     * built again.
+     * <br>
+     * As when the basics file has an ID twice, a new title with the ID of an
+     * existing one becomes the movie its ID finds, and the rating moves from the
+     * old row to it.  Other new titles are unrated (a rating and number of votes
+     * of 0) until the ratings are reloaded.  Like reloadRatings, nothing the
+     * current snapshot holds is modified, and the result is published as a new
+     * snapshot in one write.
+     *
+     * @rit.pre processRatings has been called
+     * @param fileName the basics delta file
+     * @return the number of movies added
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized int appendTitles(String fileName) throws IOException {
+        Snapshot current = this.snapshot;
+        MovieRows rows = current.rows;
+        int from = rows.size();
+
+        // the current snapshot's movieMap still reads the index, so the new IDs
+        // go into a copy
+        MovieIdIndex idIndex = this.idIndex.copy();
+        List<Movie> added = new ArrayList<>();
+        Map<Integer, Rating> changes = new HashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith(BASICS_HEADER)) {
+                    continue;
+                }
+                Movie movie = parseMovie(line.split("\t"));
+                if (movie == null) {
+                    continue;
+                }
+                Rating rating = new Rating(movie.getID(), 0.0, 0);
+                int previous = idIndex.findRow(movie.getID());
+                if (previous >= from) {
+                    Movie previousMovie = added.get(previous - from);
+                    rating = previousMovie.getRating();
+                    previousMovie.setRating(new Rating(movie.getID(), 0.0, 0));
+                } else if (previous >= 0 && (Double.compare(rows.getRating(previous), 0.0) != 0 ||
+                                             rows.getNumVotes(previous) != 0)) {
+                    rating = new Rating(movie.getID(), rows.getRating(previous), rows.getNumVotes(previous));
+                    changes.put(previous, new Rating(movie.getID(), 0.0, 0));
+                }
+                movie.setRating(rating);
+                idIndex.put(movie.getID(), from + added.size());
+                added.add(movie);
+            }
+        }
+        if (added.isEmpty()) {
+            return 0;
+        }
+
+        List<Movie> movies = withRatings(current.movies, changes);
+        if (movies instanceof MovieStore) {
+            movies = ((MovieStore) movies).append(added);
+        } else {
+            List<Movie> list = new ArrayList<>(from + added.size());
+            list.addAll(movies);
+            list.addAll(added);
+            movies = list;
+        }
+        MovieRows newRows = rowsOf(movies);
+        BitSet changed = new BitSet(newRows.size());
+        changed.set(from, newRows.size());
+        for (int row : changes.keySet()) {
+            changed.set(row);
+        }
+        this.idIndex = idIndex;
+        // the new rows have no place in the title order, so it is sorted again
+        // if a query needs it, and an index no query has built yet is left to
+        // be built from the new rows
+        YearGenreIndex yearGenreIndex = current.yearGenreIndex.getIfBuilt();
+        RuntimeIndex runtimeIndex = current.runtimeIndex.getIfBuilt();
+        VotesIndex votesIndex = current.votesIndex.getIfBuilt();
+        TopRatedIndex topRatedIndex = current.topRatedIndex.getIfBuilt();
+        TitlePrefixIndex prefixIndex = current.prefixIndex.getIfBuilt();
+        publish(new Snapshot(movies, idIndex.asMap(movies),
+                             current.titleIndex == null ? null : current.titleIndex.append(movies, from), null,
+                             yearGenreIndex == null ? null : yearGenreIndex.append(newRows, from),
+                             runtimeIndex == null ? null : runtimeIndex.append(newRows, from),
+                             votesIndex == null ? null : votesIndex.update(changed, newRows),
+                             topRatedIndex == null ? null : topRatedIndex.update(changed, newRows),
+                             prefixIndex == null ? null : prefixIndex.update(changed, newRows),
+                             this.parallelScan, current.version + 1));
+        return added.size();
+    }
+
+    /**
+     * Copy the movies with new ratings for some rows.  The movies are not
+     * modified: with the columnar store only its rating columns are copied,
+     * otherwise the list is copied and the changed movies replaced by copies.
+     *
+     * @param movies the movies
+     * @param changes the new rating of each changed row
+     * @return the movies with the new ratings, which are movies itself if
+     * nothing changed
+     */
+    private static List<Movie> withRatings(List<Movie> movies, Map<Integer, Rating> changes) {
+        if (changes.isEmpty()) {
+            return movies;
+        }
+        if (movies instanceof MovieStore) {
+            int[] changedRows = new int[changes.size()];
+            double[] ratings = new double[changes.size()];
+            int[] numVotes = new int[changes.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Rating> change : changes.entrySet()) {
+                changedRows[i] = change.getKey();
+                ratings[i] = change.getValue().getRating();
+                numVotes[i] = change.getValue().getNumVotes();
+                ++i;
+            }
+            return ((MovieStore) movies).withRatings(changedRows, ratings, numVotes);
+        }
+
+        List<Movie> result = new ArrayList<>(movies);
+        for (Map.Entry<Integer, Rating> change : changes.entrySet()) {
+            Movie movie = result.get(change.getKey());
+            Movie copy = Movie.createMovie(movie.getID(), movie.getTitleType(), movie.getTitle(),
+                                           movie.getYear(), movie.getRuntimeMinutes(),
+                                           GenreSet.of(movie.getGenreMask()));
+            copy.setRating(change.getValue());
+            result.set(change.getKey(), copy);
+        }
+        return result;
+    }
+
+    /**
+     * Get the rows of a list of movies.
+     *
+     * @param movies the movies
+     * @return the list itself if it is a columnar store, otherwise a view of it
+     */
+    private static MovieRows rowsOf(List<Movie> movies) {
+        return movies instanceof MovieStore ? (MovieStore) movies : MovieRows.of(movies);
+    }
+
+    /**
+     * Make a snapshot the current one, and point movieList, movieMap and
+     * movieStore at its movies.
+     *
+     * @param next the snapshot
+     */
+    private void publish(Snapshot next) {
+        this.movieList = next.movies;
+        this.movieMap = next.movieMap;
+        this.movieStore = next.store;
+        this.snapshot = next;
+    }
+
+    /**
+     * Get the version of the loaded dataset, which changes whenever the ratings
+     * or titles are (re)loaded, so results computed from an older version are stale.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return this.snapshot.version;
+    }
+
+    /**
+     * Get a read only list view of the movies in a range of rows.  The movies
+     * are looked up as the list is read.
+     *
+     * @param movieRows the movies the rows refer to
+     * @param rows the rows
+     * @param from the first index of the range
+     * @param to the index after the range
+     * @return the movies of the rows, in the same order
+     */
+    private static List<Movie> getMovies(MovieRows movieRows, int[] rows, int from, int to) {
+        return new AbstractList<>() {
+            @Override
+            public Movie get(int index) {
+                return movieRows.get(rows[from + Objects.checkIndex(index, to - from)]);
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
     }
 
     @Override
@@ -32,9 +552,39 @@ public class MyIMDB extends IMDB {
         // we simply loop over movieList and add to our list the movies that
         // have the same type, and contain the words substring
         List<Movie> result = new LinkedList<>();
+        Snapshot snapshot = this.snapshot;
 
         TitleType titleType = TitleType.valueOf(type);   // titleType is TitleType.MOVIE
-        for (Movie movie: super.movieList) {
+        if (this.parallelScan) {
+            return getMovieTitleWithWordsInParallel(snapshot, titleType, words);
+        }
+        if (snapshot.titleIndex != null) {
+            // the index narrows the rows down to those that have every trigram of
+            // the words, which are in file order, and contains() settles each one
+            int[] candidates = snapshot.titleIndex.candidates(titleType, words);
+            if (candidates != null) {
+                IntPredicate contains = snapshot.rows.titleContains(words);
+                for (int row : candidates) {
+                    if (contains.test(row)) {
+                        result.add(snapshot.movies.get(row));
+                    }
+                }
+                return result;
+            }
+        }
+        MovieStore store = snapshot.store;
+        if (store != null) {
+            // with the columnar store the titles' bytes are matched, and only
+            // the matches become Movie objects
+            IntPredicate contains = store.titleContains(words);
+            for (int row = 0; row < store.size(); ++row) {
+                if (store.isTitleType(row, titleType) && contains.test(row)) {
+                    result.add(store.get(row));
+                }
+            }
+            return result;
+        }
+        for (Movie movie: snapshot.movies) {
             // for a particular Movie, movie
             if (movie.getTitleType() == titleType) {
                 if (movie.getTitle().contains(words)) {
@@ -46,96 +596,289 @@ public class MyIMDB extends IMDB {
         return result;
     }
 
-    @Override
-    public Movie findMovieByID(String ID) {
-        return this.movieMap.get(ID);
+    /**
+     * Find the movies of a certain type whose titles contain a substring on all
+     * cores.  The rows, or the index's candidates, are split into fork-join
+     * partitions that are each checked in order, so the matches come out in
+     * file order just as a sequential scan finds them.
+     *
+     * @param snapshot the movies and indexes
+     * @param titleType the movie type
+     * @param words the title substring (case sensitive)
+     * @return the movies in file order
+     */
+    private static List<Movie> getMovieTitleWithWordsInParallel(Snapshot snapshot, TitleType titleType,
+                                                                String words) {
+        MovieRows rows = snapshot.rows;
+        int[] candidates = snapshot.titleIndex == null ? null : snapshot.titleIndex.candidates(titleType, words);
+        IntPredicate contains = rows.titleContains(words);
+        int[] matches;
+        if (candidates != null) {
+            matches = ParallelScan.filter(candidates.length, i -> contains.test(candidates[i]));
+            for (int i = 0; i < matches.length; ++i) {
+                matches[i] = candidates[matches[i]];
+            }
+        } else {
+            matches = ParallelScan.filter(rows.size(), row -> rows.getTitleType(row) == titleType &&
+                                                              contains.test(row));
+        }
+        return getMovies(rows, matches, 0, matches.length);
     }
 
-    @Override
-    public Collection<Movie> getMoviesByYearAndGenre(String type, int year, String genre) {
-        // we use Movie's natural order comparison which is to order Movie's of a
-        // type by title and then year
-        Set<Movie> result = new TreeSet<>();
+    /**
+     * Find the movies of a certain type whose titles contain a substring, like
+     * getMovieTitleWithWords, but lazily: the titles are only checked as the
+     * stream is consumed, so the first movie is ready as soon as it is found,
+     * and a stream cut short with limit() stops scanning there.  The stream is
+     * of the dataset as it was when this was called, whatever is reloaded or
+     * appended while it is read.
+     *
+     * @param type the movie type, e.g. "MOVIE", "TV_SHOW", etc.
+     * @param words the title substring (case sensitive)
+     * @return the movies in file order, the same as getMovieTitleWithWords returns
+     */
+    public Stream<Movie> streamMovieTitleWithWords(String type, String words) {
+        Snapshot snapshot = this.snapshot;
+        MovieRows rows = snapshot.rows;
+        TitleType titleType = TitleType.valueOf(type);
+        IntStream candidates = null;
+        if (snapshot.titleIndex != null) {
+            int[] indexed = snapshot.titleIndex.candidates(titleType, words);
+            if (indexed != null) {
+                candidates = Arrays.stream(indexed);
+            }
+        }
+        if (candidates == null) {
+            candidates = IntStream.range(0, rows.size()).filter(row -> rows.getTitleType(row) == titleType);
+        }
+        return candidates.filter(rows.titleContains(words)).mapToObj(rows::get);
+    }
 
-        TitleType typeOfMovie = TitleType.valueOf(type);
-        Genre genreOfMovie = Genre.valueOf(genre);
-        for (Movie movie: this.movieList) {
-            // for a particular Movie, movie
-            if (movie.getGenres().contains(genreOfMovie) &&
-                movie.getTitleType() == typeOfMovie &&
-                movie.getYear() == year) {
-                result.add(movie);
+    /**
+     * Answer many title-contains queries together.  Those the trigram index can
+     * answer are looked up one at a time, and all the rest share one pass over
+     * the movies, in which each movie is only checked against the queries of
+     * its own type.  The same query asked twice is only answered once.  With
+     * parallel scans the pass is split into fork-join partitions whose
+     * matches are joined back in file order.
+     *
+     * @param types the movie type of each query, e.g. "MOVIE", "TV_SHOW", etc.
+     * @param words the title substring of each query (case sensitive)
+     * @return the movies of each query, in the same order as the queries and
+     * each the same as getMovieTitleWithWords would return, or null for a query
+     * whose type is not a TitleType
+     */
+    public List<Collection<Movie>> getMovieTitleWithWords(List<String> types, List<String> words) {
+        List<Collection<Movie>> results = new ArrayList<>(types.size());
+        Snapshot snapshot = this.snapshot;
+        Map<String, Collection<Movie>> distinct = new HashMap<>();
+        // the scanned queries of each type, indexed by TitleType ordinal
+        List<List<String>> scans = new ArrayList<>();
+        List<List<Collection<Movie>>> scanResults = new ArrayList<>();
+        for (int i = 0; i < TitleType.values().length; ++i) {
+            scans.add(new ArrayList<>());
+            scanResults.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < types.size(); ++i) {
+            TitleType titleType;
+            try {
+                titleType = TitleType.valueOf(types.get(i));
+            } catch (IllegalArgumentException e) {
+                results.add(null);
+                continue;
+            }
+            String query = words.get(i);
+            Collection<Movie> result = distinct.get(titleType + " " + query);
+            if (result == null) {
+                if (snapshot.titleIndex != null && snapshot.titleIndex.candidates(titleType, query) != null) {
+                    result = getMovieTitleWithWords(titleType.name(), query);
+                } else {
+                    result = new LinkedList<>();
+                    scans.get(titleType.ordinal()).add(query);
+                    scanResults.get(titleType.ordinal()).add(result);
+                }
+                distinct.put(titleType + " " + query, result);
             }
+            results.add(result);
         }
-        return result;
+
+        MovieRows rows = snapshot.rows;
+        List<List<IntPredicate>> tests = new ArrayList<>(scans.size());
+        for (List<String> queries : scans) {
+            List<IntPredicate> typeTests = new ArrayList<>(queries.size());
+            for (String query : queries) {
+                typeTests.add(rows.titleContains(query));
+            }
+            tests.add(typeTests);
+        }
+        int[][][] found = this.parallelScan ?
+                          ParallelScan.scan(rows.size(), (from, to) -> scanTitles(rows, tests, from, to),
+                                            MyIMDB::concatEach) :
+                          scanTitles(rows, tests, 0, rows.size());
+        for (int type = 0; type < found.length; ++type) {
+            for (int i = 0; i < found[type].length; ++i) {
+                for (int row : found[type][i]) {
+                    scanResults.get(type).get(i).add(snapshot.movies.get(row));
+                }
+            }
+        }
+        return results;
     }
 
-    @Override
-    public Collection<Movie> getMoviesByRuntime(String type, int start, int end) {
-        // we use a comparator which orders Movie's of a type by descending runtime
-        // and then title
-        Set<Movie> result = new TreeSet<>(new MovieComparatorRuntime());
+    /**
+     * Check a range of rows against the scanned queries of their types.
+     *
+     * @param rows the movies
+     * @param tests the title test of each query of each type, indexed by
+     *              TitleType ordinal
+     * @param from the first row
+     * @param to the row after the range
+     * @return the rows that match each query in order, indexed by TitleType
+     * ordinal and then by query
+     */
+    private static int[][][] scanTitles(MovieRows rows, List<List<IntPredicate>> tests, int from, int to) {
+        int[][][] found = new int[tests.size()][][];
+        int[][] counts = new int[tests.size()][];
+        for (int type = 0; type < tests.size(); ++type) {
+            found[type] = new int[tests.get(type).size()][16];
+            counts[type] = new int[tests.get(type).size()];
+        }
+        for (int row = from; row < to; ++row) {
+            TitleType titleType = rows.getTitleType(row);
+            if (titleType == null) {
+                continue;
+            }
+            List<IntPredicate> queries = tests.get(titleType.ordinal());
+            if (queries.isEmpty()) {
+                continue;
+            }
+            int[][] typeFound = found[titleType.ordinal()];
+            int[] typeCounts = counts[titleType.ordinal()];
+            for (int i = 0; i < queries.size(); ++i) {
+                if (queries.get(i).test(row)) {
+                    if (typeCounts[i] == typeFound[i].length) {
+                        typeFound[i] = Arrays.copyOf(typeFound[i], typeCounts[i] * 2);
+                    }
+                    typeFound[i][typeCounts[i]++] = row;
+                }
+            }
+        }
+        for (int type = 0; type < found.length; ++type) {
+            for (int i = 0; i < found[type].length; ++i) {
+                found[type][i] = Arrays.copyOf(found[type][i], counts[type][i]);
+            }
+        }
+        return found;
+    }
 
-        TitleType typeOfMovie = TitleType.valueOf(type);
-        for (Movie movie: this.movieList) {
-            if (movie.getTitleType() == typeOfMovie &&
-                movie.getRuntimeMinutes() >= start &&
-                movie.getRuntimeMinutes() <= end) {
-                result.add(movie);
+    /**
+     * Join the matches of two adjacent ranges of rows, query by query.
+     *
+     * @param first the matches of the earlier range, which receive the joined rows
+     * @param second the matches of the later range
+     * @return first
+     */
+    private static int[][][] concatEach(int[][][] first, int[][][] second) {
+        for (int type = 0; type < first.length; ++type) {
+            for (int i = 0; i < first[type].length; ++i) {
+                first[type][i] = ParallelScan.concat(first[type][i], second[type][i]);
             }
         }
-        return result;
+        return first;
     }
 
     @Override
-    public Collection<Movie> getMoviesMostVotes(int num, String type) {
-        // use a comparator that orders Movie's of a type by descending number
-        // of votes
-
-        List<Movie> result = new LinkedList<>();
+    public Movie findMovieByID(String ID) {
+        return this.snapshot.movieMap.get(ID);
+    }
 
-        Set<Movie> sortedMostVotes = new TreeSet<>(new MovieComparatorVotes());
+    @Override
+    public Collection<Movie> getMoviesByYearAndGenre(String type, int year, String genre) {
+        // the index holds the movies of each type, year and genre ordered by
+        // Movie's natural order, which for a single year is by title
         TitleType typeOfMovie = TitleType.valueOf(type);
-        for (Movie movie: this.movieList) {
-            if (movie.getTitleType() == typeOfMovie) {
-                sortedMostVotes.add(movie);
-            }
-        }
+        Genre genreOfMovie = Genre.valueOf(genre);
+        Snapshot snapshot = this.snapshot;
+        int[] rows = snapshot.yearGenreIndex.get().getRows(typeOfMovie, year, genreOfMovie);
+        return getMovies(snapshot.rows, rows, 0, rows.length);
+    }
 
-        Iterator iter = sortedMostVotes.iterator();
-        for (int i = 0; i < num; i++) {
-            result.add((Movie) iter.next());
-        }
+    @Override
+    public Collection<Movie> getMoviesByRuntime(String type, int start, int end) {
+        // the index orders the movies of a type by descending runtime and then
+        // title, so the runtimes from end down to start are a single slice
+        TitleType typeOfMovie = TitleType.valueOf(type);
+        Snapshot snapshot = this.snapshot;
+        RuntimeIndex runtimeIndex = snapshot.runtimeIndex.get();
+        int from = runtimeIndex.firstAtMost(typeOfMovie, end);
+        int to = Math.max(from, runtimeIndex.firstAtMost(typeOfMovie, start - 1));
+        return getMovies(snapshot.rows, runtimeIndex.getRows(typeOfMovie), from, to);
+    }
 
-        return result;
+    @Override
+    public Collection<Movie> getMoviesMostVotes(int num, String type) {
+        // the index orders the movies of a type by descending number of votes,
+        // so the answer is the front of the array.  if there are fewer than num
+        // movies of the type, all of them are returned
+        Snapshot snapshot = this.snapshot;
+        int[] rows = snapshot.votesIndex.get().topRows(num, TitleType.valueOf(type), snapshot.rows);
+        return getMovies(snapshot.rows, rows, 0, rows.length);
     }
 
     @Override
     public Map<Integer, List<Movie>> getMoviesTopRated(int num, String type, int start, int end) {
+        return getMoviesTopRated(num, type, start, end, MIN_NUM_VOTES_FOR_TOP_RANKED);
+    }
+
+    /**
+     * For a range of inclusive years, get the num top rated movies for each year
+     * among the movies with at least a number of votes.
+     *
+     * @param num number of top movies
+     * @param type the movie type, e.g. "MOVIE", "TV_SHOW", etc.
+     * @param start the start year (inclusive)
+     * @param end the end year (inclusive)
+     * @param minNumVotes the minimum number of votes a movie needs to be ranked
+     * @return the map is keyed by year from start to end inclusive, and the values
+     * for each year are the movies in Rating's natural order
+     */
+    public Map<Integer, List<Movie>> getMoviesTopRated(int num, String type, int start, int end, int minNumVotes) {
+        // the index holds the movies of each type and year in Rating's natural
+        // order, so each year's answer is the first rows with enough votes
         Map<Integer, List<Movie>> result = new TreeMap<>();
 
-        Set<Rating> sortedRatings = new TreeSet<>();
         TitleType typeOfMovie = TitleType.valueOf(type);
-        for (Movie movie: this.movieList) {
-            if (movie.getTitleType() == typeOfMovie &&
-                movie.getRating().getNumVotes() >= MIN_NUM_VOTES_FOR_TOP_RANKED &&
-                movie.getYear() >= start &&
-                movie.getYear() <= end) {
-                sortedRatings.add(movie.getRating());
-            }
+        Snapshot snapshot = this.snapshot;
+        TopRatedIndex topRatedIndex = snapshot.topRatedIndex.get();
+        for (int year = start; year <= end; year++) {
+            int[] top = topRatedIndex.topRows(num, typeOfMovie, year, minNumVotes, snapshot.rows);
+            result.put(year, getMovies(snapshot.rows, top, 0, top.length));
         }
 
-        for (int i = start; i <= end; i++) {
-            result.put(i, new LinkedList<>());
-        }
+        return result;
+    }
 
-        for (Rating rating: sortedRatings) {
-            if (result.get(this.movieMap.get(rating.getID()).getYear()).size() < num) {
-                result.get(this.movieMap.get(rating.getID()).getYear()).
-                            add(this.movieMap.get(rating.getID()));
-            }
+    /**
+     * Find the movies of a certain type whose titles start with a prefix (case
+     * sensitive), for type-ahead.  The movies returned are the num with the most
+     * votes, ordered by descending number of votes, followed by alphabetically by
+     * the movie title in case of a tie.
+     *
+     * @rit.pre processRatings has been called
+     * @param num number of movies to list
+     * @param type the movie type, e.g. "MOVIE", "TV_SHOW", etc.
+     * @param prefix the start of the title
+     * @return up to num movies ordered by descending number of votes, then
+     * alphabetical by title in case of a tie
+     */
+    public Collection<Movie> getMoviesWithTitlePrefix(int num, String type, String prefix) {
+        List<Movie> result = new LinkedList<>();
+        Snapshot snapshot = this.snapshot;
+        MovieRows rows = snapshot.rows;
+        for (int row : snapshot.prefixIndex.get().topRows(num, TitleType.valueOf(type), prefix, rows)) {
+            result.add(rows.get(row));
         }
-
         return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,142 @@
+package movies;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntPredicate;
+
+/**
+ * Scans a range of rows on all cores with fork-join.  The range is split in
+ * halves until the parts are small enough for one thread, each part is
+ * scanned in row order, and the results of the parts are merged back in the
+ * same order, so the result is exactly that of one sequential scan.  A range
+ * under the threshold is scanned on the calling thread without forking, which
+ * keeps a small dataset sequential.
+ *
+ * @author Ryan Nowak
+ */
+final class ParallelScan {
+    /** the fewest rows worth handing to another thread */
+    final static int THRESHOLD = 1 << 15;
+
+    /**
+     * Scans a range of rows on one thread.
+     *
+     * @param <R> the type of result
+     */
+    @FunctionalInterface
+    interface RangeScan<R> {
+        /**
+         * Scan a range of rows.
+         *
+         * @param from the first row
+         * @param to the row after the range
+         * @return the result of the range
+         */
+        R scan(int from, int to);
+    }
+
+    /**
+     * Scans a range of rows, splitting it in halves while it is over the threshold.
+     *
+     * @param <R> the type of result
+     */
+    private final static class ScanTask<R> extends RecursiveTask<R> {
+        /** the version of the serialized form */
+        private final static long serialVersionUID = 1L;
+
+        /** scans each part */
+        private final RangeScan<R> scan;
+        /** merges the results of two adjacent parts, the earlier one first */
+        private final BinaryOperator<R> merge;
+        /** the first row */
+        private final int from;
+        /** the row after the range */
+        private final int to;
+
+        /**
+         * Create a task.
+         *
+         * @param scan scans each part
+         * @param merge merges the results of two adjacent parts
+         * @param from the first row
+         * @param to the row after the range
+         */
+        private ScanTask(RangeScan<R> scan, BinaryOperator<R> merge, int from, int to) {
+            this.scan = scan;
+            this.merge = merge;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected R compute() {
+            if (this.to - this.from <= THRESHOLD) {
+                return this.scan.scan(this.from, this.to);
+            }
+            int mid = (this.from + this.to) >>> 1;
+            ScanTask<R> first = new ScanTask<>(this.scan, this.merge, this.from, mid);
+            first.fork();
+            R second = new ScanTask<>(this.scan, this.merge, mid, this.to).compute();
+            return this.merge.apply(first.join(), second);
+        }
+    }
+
+    /**
+     * Not instantiable, all routines are static.
+     */
+    private ParallelScan() {
+    }
+
+    /**
+     * Scan rows 0 to size on all cores.
+     *
+     * @param size the number of rows
+     * @param scan scans a part of the rows on one thread
+     * @param merge merges the results of two adjacent parts, the earlier one first
+     * @param <R> the type of result
+     * @return the merged result
+     */
+    static <R> R scan(int size, RangeScan<R> scan, BinaryOperator<R> merge) {
+        return new ScanTask<>(scan, merge, 0, size).invoke();
+    }
+
+    /**
+     * Find the rows from 0 to size that match on all cores.
+     *
+     * @param size the number of rows
+     * @param match whether a row is kept, which is called from many threads
+     * @return the rows that match, in order
+     */
+    static int[] filter(int size, IntPredicate match) {
+        return scan(size, (from, to) -> {
+            int[] found = new int[16];
+            int count = 0;
+            for (int row = from; row < to; ++row) {
+                if (match.test(row)) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = row;
+                }
+            }
+            return Arrays.copyOf(found, count);
+        }, ParallelScan::concat);
+    }
+
+    /**
+     * Join two arrays of rows.
+     *
+     * @param first the earlier rows
+     * @param second the later rows
+     * @return the rows of both, first then second
+     */
+    static int[] concat(int[] first, int[] second) {
+        if (second.length == 0) {
+            return first;
+        }
+        int[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,127 @@
+package movies;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the printed results of query commands, keyed by the
+ * normalized command.  The cache is weighted by the length of the results, so
+ * one huge CONTAINS result cannot push out thousands of small LOOKUP results
+ * without counting for them, and the least recently used results are evicted
+ * first once the total goes over the capacity.
+ * <br>
+ * The results depend on the loaded dataset, so every entry is dropped when the
+ * dataset's version changes, i.e. when the ratings or titles are reloaded.
+ *
+ * @author Ryan Nowak
+ */
+public final class QueryCache {
+    /** the results in least to most recently used order */
+    private final LinkedHashMap<String, String> results;
+    /** the most characters of results the cache holds */
+    private final long capacity;
+    /** the characters of results held */
+    private long weight;
+    /** the version of the dataset the results came from */
+    private long version;
+    /** the number of lookups that found a result */
+    private long hits;
+    /** the number of lookups that did not */
+    private long misses;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param capacity the most characters of results to hold
+     */
+    public QueryCache(long capacity) {
+        // access order makes iteration start at the least recently used entry
+        this.results = new LinkedHashMap<>(16, 0.75f, true);
+        this.capacity = capacity;
+        this.weight = 0;
+        this.version = 0;
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * Look up the result of a command, which makes it the most recently used.
+     *
+     * @param command the normalized command
+     * @param version the version of the dataset the result must come from
+     * @return the result, or null if it is not cached
+     */
+    public synchronized String get(String command, long version) {
+        if (version != this.version) {
+            clear();
+            this.version = version;
+        }
+        String result = this.results.get(command);
+        if (result == null) {
+            ++this.misses;
+        } else {
+            ++this.hits;
+        }
+        return result;
+    }
+
+    /**
+     * Add the result of a command, evicting the least recently used results
+     * to make room.  A result larger than the whole cache is not added.
+     *
+     * @param command the normalized command
+     * @param version the version of the dataset the result came from
+     * @param result the printed result
+     */
+    public synchronized void put(String command, long version, String result) {
+        if (version != this.version || result.length() > this.capacity) {
+            return;
+        }
+        String old = this.results.put(command, result);
+        if (old != null) {
+            this.weight -= old.length();
+        }
+        this.weight += result.length();
+        Iterator<Map.Entry<String, String>> eldest = this.results.entrySet().iterator();
+        while (this.weight > this.capacity) {
+            this.weight -= eldest.next().getValue().length();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drop every result.  The counters are kept.
+     */
+    public synchronized void clear() {
+        this.results.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * Get the number of lookups that found a result.
+     *
+     * @return the hits
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Get the number of lookups that did not find a result.
+     *
+     * @return the misses
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Get the number of results held.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return this.results.size();
+    }
+}
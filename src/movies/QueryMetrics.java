@@ -0,0 +1,164 @@
+package movies;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Latency and result size metrics, kept per named operation: each query command
+ * and each phase of loading the dataset.  Every operation has a latency
+ * histogram and counts of the result lines it printed, and the whole set can be
+ * printed as a table or written as JSON.
+ * <br>
+ * The metrics are thread safe, so the connections of the server can record
+ * into the same ones.
+ * <br>
+ * If a result cache is attached, its hit and miss counts are reported with
+ * the operations.
+ *
+ * @author Ryan Nowak
+ */
+public final class QueryMetrics {
+    /** the percentiles reported */
+    private final static double[] PERCENTILES = {50, 90, 99};
+
+    /**
+     * The metrics of one operation.
+     */
+    private final static class Operation {
+        /** the latencies */
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        /** the total number of result lines */
+        private long totalLines;
+        /** the most result lines of one run */
+        private long maxLines;
+    }
+
+    /** the operations, in the order they were added */
+    private final Map<String, Operation> operations;
+    /** the result cache whose hits and misses are reported, or null if none */
+    private QueryCache cache;
+
+    /**
+     * Create metrics for a set of operations.  Operations that are recorded
+     * without being named here are added as they come.
+     *
+     * @param names the names of the operations, in the order they are reported
+     */
+    public QueryMetrics(String... names) {
+        this.operations = new LinkedHashMap<>();
+        for (String name : names) {
+            this.operations.put(name, new Operation());
+        }
+    }
+
+    /**
+     * Report the hits and misses of a result cache with the operations.
+     *
+     * @param cache the cache, or null to stop reporting one
+     */
+    public synchronized void setCache(QueryCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Get the metrics of an operation, adding them if they are new.
+     *
+     * @param name the name of the operation
+     * @return the metrics
+     */
+    private synchronized Operation operation(String name) {
+        return this.operations.computeIfAbsent(name, n -> new Operation());
+    }
+
+    /**
+     * Record one run of an operation.
+     *
+     * @param name the name of the operation
+     * @param nanos how long it took in nanoseconds
+     * @param lines the number of result lines it printed
+     */
+    public void record(String name, long nanos, long lines) {
+        Operation operation = operation(name);
+        operation.latencies.record(nanos);
+        synchronized (operation) {
+            operation.totalLines += lines;
+            operation.maxLines = Math.max(operation.maxLines, lines);
+        }
+    }
+
+    /**
+     * Format a latency in milliseconds.
+     *
+     * @param nanos the latency in nanoseconds
+     * @return the latency, e.g. "1.234 ms"
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f ms", nanos / 1e6);
+    }
+
+    /**
+     * Print the metrics of every operation, one line each, then the cache
+     * counts, if any.
+     *
+     * @param out receives the lines
+     * @param newline ends each line
+     */
+    public synchronized void print(StringBuilder out, String newline) {
+        for (Map.Entry<String, Operation> entry : this.operations.entrySet()) {
+            Operation operation = entry.getValue();
+            LatencyHistogram latencies = operation.latencies;
+            out.append(entry.getKey()).append(": count=").append(latencies.getCount());
+            for (double percentile : PERCENTILES) {
+                out.append(", p").append((int) percentile).append('=')
+                   .append(millis(latencies.getPercentile(percentile)));
+            }
+            out.append(", max=").append(millis(latencies.getMax()));
+            synchronized (operation) {
+                out.append(", result lines=").append(operation.totalLines)
+                   .append(" (max ").append(operation.maxLines).append(')');
+            }
+            out.append(newline);
+        }
+        if (this.cache != null) {
+            out.append("cache: hits=").append(this.cache.getHits())
+               .append(", misses=").append(this.cache.getMisses()).append(newline);
+        }
+    }
+
+    /**
+     * Write the metrics of every operation as a JSON object, keyed by the name
+     * of the operation, with the latencies in nanoseconds.  The cache counts,
+     * if any, are under "cache".
+     *
+     * @return the JSON
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        String separator = "\n  ";
+        for (Map.Entry<String, Operation> entry : this.operations.entrySet()) {
+            Operation operation = entry.getValue();
+            LatencyHistogram latencies = operation.latencies;
+            json.append(separator).append('"').append(entry.getKey()).append("\": {")
+                .append("\"count\": ").append(latencies.getCount());
+            for (double percentile : PERCENTILES) {
+                json.append(", \"p").append((int) percentile).append("Nanos\": ")
+                    .append(latencies.getPercentile(percentile));
+            }
+            json.append(", \"maxNanos\": ").append(latencies.getMax())
+                .append(", \"meanNanos\": ").append(Math.round(latencies.getMean()));
+            synchronized (operation) {
+                json.append(", \"totalResultLines\": ").append(operation.totalLines)
+                    .append(", \"maxResultLines\": ").append(operation.maxLines);
+            }
+            json.append('}');
+            separator = ",\n  ";
+        }
+        if (this.cache != null) {
+            json.append(separator).append("\"cache\": {")
+                .append("\"hits\": ").append(this.cache.getHits())
+                .append(", \"misses\": ").append(this.cache.getMisses()).append('}');
+        }
+        return json.append("\n}\n").toString();
+    }
+}
@@ -0,0 +1,292 @@
+package movies;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A stable merge sort of rows (int indexes into movieList) with a comparator
+ * over rows, so the indexes can be sorted without boxing every row.
+ *
+ * @author Ryan Nowak
+ */
+public final class RowSort {
+    /** ranges this short are sorted by insertion */
+    private final static int INSERTION_THRESHOLD = 32;
+
+    /**
+     * Compares two rows.
+     */
+    @FunctionalInterface
+    public interface RowComparator {
+        /**
+         * Compare two rows.
+         *
+         * @param row1 the first row
+         * @param row2 the second row
+         * @return less than 0, 0 or greater than 0 as the first row orders before,
+         * the same as, or after the second
+         */
+        int compare(int row1, int row2);
+    }
+
+    /**
+     * Sorts a range like mergeSort, but sorts the halves of a range over the
+     * threshold on other threads.
+     */
+    private final static class SortTask extends RecursiveAction {
+        /** the version of the serialized form */
+        private final static long serialVersionUID = 1L;
+
+        /** the rows to sort */
+        private final int[] src;
+        /** receives the sorted rows */
+        private final int[] dest;
+        /** the first index in dest */
+        private final int from;
+        /** the index after the range in dest */
+        private final int to;
+        /** added to a dest index to get the src index */
+        private final int offset;
+        /** the order */
+        private final RowComparator comparator;
+
+        /**
+         * Create a task.
+         *
+         * @param src the rows to sort, the same as dest on entry
+         * @param dest receives the sorted rows
+         * @param from the first index in dest
+         * @param to the index after the range in dest
+         * @param offset added to a dest index to get the src index
+         * @param comparator the order
+         */
+        private SortTask(int[] src, int[] dest, int from, int to, int offset, RowComparator comparator) {
+            this.src = src;
+            this.dest = dest;
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= ParallelScan.THRESHOLD) {
+                mergeSort(this.src, this.dest, this.from, this.to, this.offset, this.comparator);
+                return;
+            }
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new SortTask(this.dest, this.src, this.from + this.offset, mid + this.offset,
+                                   -this.offset, this.comparator),
+                      new SortTask(this.dest, this.src, mid + this.offset, this.to + this.offset,
+                                   -this.offset, this.comparator));
+            mergeRuns(this.src, this.dest, this.from, mid, this.to, this.offset, this.comparator);
+        }
+    }
+
+    /**
+     * Not instantiable, all routines are static.
+     */
+    private RowSort() {
+    }
+
+    /**
+     * Sort rows.  Equal rows keep their relative order.
+     *
+     * @param rows the rows
+     * @param comparator the order
+     */
+    public static void sort(int[] rows, RowComparator comparator) {
+        sort(rows, 0, rows.length, comparator);
+    }
+
+    /**
+     * Sort a range of rows.  Equal rows keep their relative order.
+     *
+     * @param rows the rows
+     * @param from the first index of the range
+     * @param to the index after the range
+     * @param comparator the order
+     */
+    public static void sort(int[] rows, int from, int to, RowComparator comparator) {
+        if (to - from < 2) {
+            return;
+        }
+        int[] work = new int[to - from];
+        System.arraycopy(rows, from, work, 0, to - from);
+        mergeSort(work, rows, from, to, -from, comparator);
+    }
+
+    /**
+     * Sort rows on all cores with fork-join.  The halves of the array are
+     * sorted in parallel and merged, down to ranges too short to be worth
+     * another thread, so a short array is sorted on the calling thread.  Equal
+     * rows keep their relative order, so the result is the same as sort's.
+     *
+     * @param rows the rows
+     * @param comparator the order, which is called from many threads
+     */
+    public static void parallelSort(int[] rows, RowComparator comparator) {
+        if (rows.length <= ParallelScan.THRESHOLD) {
+            sort(rows, comparator);
+            return;
+        }
+        new SortTask(rows.clone(), rows, 0, rows.length, 0, comparator).invoke();
+    }
+
+    /**
+     * Update a sorted array without sorting it again: drop some rows and merge
+     * in others.  Rows that compare equal are ordered by row, so the result is
+     * the same as a stable sort of the updated rows in row order, which is how
+     * the indexes are first built.
+     *
+     * @param sorted the rows, sorted by the comparator and then by row
+     * @param removed the rows to drop, which may include rows not in the array
+     * @param added the rows to merge in, which must not be in the array after
+     * the removed rows are dropped
+     * @param comparator the order
+     * @return the updated rows, a new array
+     */
+    public static int[] replace(int[] sorted, BitSet removed, int[] added, RowComparator comparator) {
+        int[] kept = sorted;
+        int size = sorted.length;
+        if (!removed.isEmpty()) {
+            kept = new int[sorted.length];
+            size = 0;
+            for (int row : sorted) {
+                if (!removed.get(row)) {
+                    kept[size++] = row;
+                }
+            }
+        }
+        return merge(kept, size, added, comparator, false);
+    }
+
+    /**
+     * Merge new rows into a sorted array of distinct rows, keeping only the
+     * first of rows that compare equal, as the indexes that are built like a
+     * TreeSet do.  The new rows come after every row of the array, so one that
+     * compares equal to a row already there is the one dropped.
+     *
+     * @param sorted the rows, sorted by the comparator with no two equal
+     * @param added the rows to merge in, each larger than every row of the array
+     * @param comparator the order
+     * @return the updated rows, a new array
+     */
+    public static int[] insertDistinct(int[] sorted, int[] added, RowComparator comparator) {
+        return merge(sorted, sorted.length, added, comparator, true);
+    }
+
+    /**
+     * Merge rows into a sorted array.  Each added row finds its place with a
+     * binary search, and the runs of the array between them are copied whole,
+     * so merging k rows into n costs O(k log n) comparisons rather than O(n).
+     *
+     * @param sorted the rows, sorted by the comparator and then by row
+     * @param size the number of rows at the front of sorted to use
+     * @param added the rows to merge in
+     * @param comparator the order
+     * @param distinct whether an added row that compares equal to the row
+     *                 before it is dropped
+     * @return the merged rows, a new array
+     */
+    private static int[] merge(int[] sorted, int size, int[] added, RowComparator comparator,
+                               boolean distinct) {
+        RowComparator byRow = (row1, row2) -> {
+            int result = comparator.compare(row1, row2);
+            return result != 0 ? result : Integer.compare(row1, row2);
+        };
+        int[] addedSorted = added.clone();
+        sort(addedSorted, byRow);
+
+        int[] result = new int[size + addedSorted.length];
+        int length = 0;
+        int from = 0;
+        for (int row : addedSorted) {
+            int lo = from;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (byRow.compare(sorted[mid], row) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            System.arraycopy(sorted, from, result, length, lo - from);
+            length += lo - from;
+            from = lo;
+            if (!distinct || length == 0 || comparator.compare(result[length - 1], row) != 0) {
+                result[length++] = row;
+            }
+        }
+        System.arraycopy(sorted, from, result, length, size - from);
+        length += size - from;
+        return length == result.length ? result : Arrays.copyOf(result, length);
+    }
+
+    /**
+     * Sort src[from - offset, to - offset) into dest[from, to), using both as
+     * scratch space.
+     *
+     * @param src the rows to sort, the same as dest on entry
+     * @param dest receives the sorted rows
+     * @param from the first index in dest
+     * @param to the index after the range in dest
+     * @param offset added to a dest index to get the src index
+     * @param comparator the order
+     */
+    private static void mergeSort(int[] src, int[] dest, int from, int to, int offset,
+                                  RowComparator comparator) {
+        if (to - from < INSERTION_THRESHOLD) {
+            for (int i = from + 1; i < to; ++i) {
+                int row = dest[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(dest[j], row) > 0) {
+                    dest[j + 1] = dest[j];
+                    --j;
+                }
+                dest[j + 1] = row;
+            }
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(dest, src, from + offset, mid + offset, -offset, comparator);
+        mergeSort(dest, src, mid + offset, to + offset, -offset, comparator);
+        mergeRuns(src, dest, from, mid, to, offset, comparator);
+    }
+
+    /**
+     * Merge the sorted runs src[from - offset, mid - offset) and
+     * src[mid - offset, to - offset) into dest[from, to).  Of equal rows, those
+     * of the first run come first.
+     *
+     * @param src the sorted runs
+     * @param dest receives the merged rows
+     * @param from the first index in dest
+     * @param mid the index in dest where the second run starts
+     * @param to the index after the range in dest
+     * @param offset added to a dest index to get the src index
+     * @param comparator the order
+     */
+    private static void mergeRuns(int[] src, int[] dest, int from, int mid, int to, int offset,
+                                  RowComparator comparator) {
+        int left = from + offset;
+        int leftEnd = mid + offset;
+        int right = leftEnd;
+        int rightEnd = to + offset;
+        if (comparator.compare(src[leftEnd - 1], src[right]) <= 0) {
+            System.arraycopy(src, left, dest, from, to - from);
+            return;
+        }
+        for (int i = from; i < to; ++i) {
+            if (right >= rightEnd || (left < leftEnd && comparator.compare(src[left], src[right]) <= 0)) {
+                dest[i] = src[left++];
+            } else {
+                dest[i] = src[right++];
+            }
+        }
+    }
+}
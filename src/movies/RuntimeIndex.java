@@ -0,0 +1,233 @@
+package movies;
+
+import cs.TitleType;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An index of the movies of each type sorted in the MovieComparatorRuntime
+ * order: by descending runtime, then alphabetically by title, then by year.
+ * The movies with a runtime in a range are one contiguous slice of the array,
+ * found with two binary searches, so a RUNTIME query costs O(log n + k).
+ * Like a TreeSet with that comparator, the index keeps only the first of
+ * movies that compare equal.
+ *
+ * @author Ryan Nowak
+ */
+public final class RuntimeIndex {
+    /** the rows of each type, indexed by TitleType ordinal, in runtime order */
+    private final int[][] sorted;
+    /** the runtime of each entry of sorted, so the searches stay in one array */
+    private final int[][] runtimes;
+
+    /**
+     * Build the index.
+     *
+     * @param rows the movies
+     * @param titles the rows in title order, whose ranks stand in for the titles
+     * @param parallel whether the large types are sorted on all cores
+     */
+    RuntimeIndex(MovieRows rows, TitleOrder titles, boolean parallel) {
+        TitleType[] types = TitleType.values();
+        this.sorted = new int[types.length][];
+        this.runtimes = new int[types.length][];
+
+        int[] counts = new int[types.length];
+        for (int row = 0; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                ++counts[type.ordinal()];
+            }
+        }
+        for (TitleType type : types) {
+            this.sorted[type.ordinal()] = new int[counts[type.ordinal()]];
+            counts[type.ordinal()] = 0;
+        }
+        for (int row = 0; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                this.sorted[type.ordinal()][counts[type.ordinal()]++] = row;
+            }
+        }
+
+        RowSort.RowComparator byTitle = titles::compare;
+        RowSort.RowComparator order = (row1, row2) -> compare(row1, row2, rows, byTitle);
+        for (TitleType type : types) {
+            // the sort is stable, so of the movies that compare equal the first
+            // in the file comes first and is the one kept
+            int[] typeRows = this.sorted[type.ordinal()];
+            if (parallel) {
+                RowSort.parallelSort(typeRows, order);
+            } else {
+                RowSort.sort(typeRows, order);
+            }
+            typeRows = firstOfEach(typeRows, order);
+            this.sorted[type.ordinal()] = typeRows;
+            this.runtimes[type.ordinal()] = runtimes(typeRows, rows);
+        }
+    }
+
+    /**
+     * Create an index from its arrays.
+     *
+     * @param sorted the rows of each type in runtime order
+     * @param runtimes the runtime of each entry of sorted
+     */
+    private RuntimeIndex(int[][] sorted, int[][] runtimes) {
+        this.sorted = sorted;
+        this.runtimes = runtimes;
+    }
+
+    /**
+     * Write the index to a snapshot.
+     *
+     * @param out the snapshot
+     * @throws IOException if the write fails
+     */
+    void write(MovieSnapshot.Output out) throws IOException {
+        out.putIntArrays(this.sorted);
+        out.putIntArrays(this.runtimes);
+    }
+
+    /**
+     * Read an index written by write().
+     *
+     * @param in the snapshot
+     * @return the index
+     * @throws IOException if the read fails
+     */
+    static RuntimeIndex read(MovieSnapshot.Input in) throws IOException {
+        return new RuntimeIndex(in.getIntArrays(), in.getIntArrays());
+    }
+
+    /**
+     * Create the index of the movies after new ones have been added after the
+     * last row.  The new rows are merged into the arrays of their types, where
+     * a movie that compares equal to one already there is dropped, and the
+     * other types are shared with this index, which is not modified.
+     *
+     * @param rows the movies, including the new ones
+     * @param from the first new row
+     * @return the updated index
+     */
+    public RuntimeIndex append(MovieRows rows, int from) {
+        TitleType[] types = TitleType.values();
+        int[] counts = new int[types.length];
+        for (int row = from; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                ++counts[type.ordinal()];
+            }
+        }
+        int[][] added = new int[types.length][];
+        for (TitleType type : types) {
+            added[type.ordinal()] = new int[counts[type.ordinal()]];
+            counts[type.ordinal()] = 0;
+        }
+        for (int row = from; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                added[type.ordinal()][counts[type.ordinal()]++] = row;
+            }
+        }
+
+        int[][] sorted = this.sorted.clone();
+        int[][] runtimes = this.runtimes.clone();
+        RowSort.RowComparator order = (row1, row2) -> compare(row1, row2, rows, rows::compareTitles);
+        for (TitleType type : types) {
+            if (added[type.ordinal()].length > 0) {
+                int[] typeRows = RowSort.insertDistinct(this.sorted[type.ordinal()], added[type.ordinal()], order);
+                sorted[type.ordinal()] = typeRows;
+                runtimes[type.ordinal()] = runtimes(typeRows, rows);
+            }
+        }
+        return new RuntimeIndex(sorted, runtimes);
+    }
+
+    /**
+     * Keep only the first of rows that compare equal.
+     *
+     * @param typeRows the sorted rows, equal ones in row order, which are modified
+     * @param order the order
+     * @return the rows kept
+     */
+    private static int[] firstOfEach(int[] typeRows, RowSort.RowComparator order) {
+        int kept = 0;
+        for (int row : typeRows) {
+            if (kept == 0 || order.compare(typeRows[kept - 1], row) != 0) {
+                typeRows[kept++] = row;
+            }
+        }
+        return Arrays.copyOf(typeRows, kept);
+    }
+
+    /**
+     * Get the runtimes of rows.
+     *
+     * @param typeRows the rows
+     * @param rows the movies
+     * @return the runtime of each row, in the same order
+     */
+    private static int[] runtimes(int[] typeRows, MovieRows rows) {
+        int[] typeRuntimes = new int[typeRows.length];
+        for (int i = 0; i < typeRows.length; ++i) {
+            typeRuntimes[i] = rows.getRuntimeMinutes(typeRows[i]);
+        }
+        return typeRuntimes;
+    }
+
+    /**
+     * Compare two rows the way MovieComparatorRuntime compares their movies.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @param rows the movies
+     * @param byTitle compares the titles of two rows
+     * @return less than 0 if the first row orders first, 0 if they are equal,
+     * greater than 0 if the second row orders first
+     */
+    private static int compare(int row1, int row2, MovieRows rows, RowSort.RowComparator byTitle) {
+        int result = rows.getRuntimeMinutes(row2) - rows.getRuntimeMinutes(row1);
+        if (result == 0) {
+            result = byTitle.compare(row1, row2);
+            if (result == 0) {
+                result = rows.getYear(row1) - rows.getYear(row2);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the rows of a type, in runtime order.
+     *
+     * @param type the movie type
+     * @return the rows, which must not be modified
+     */
+    public int[] getRows(TitleType type) {
+        return this.sorted[type.ordinal()];
+    }
+
+    /**
+     * Find the first position in the rows of a type whose runtime is at most
+     * a length.
+     *
+     * @param type the movie type
+     * @param runtime the runtime length in minutes
+     * @return the position, or the number of rows if every runtime is longer
+     */
+    public int firstAtMost(TitleType type, int runtime) {
+        int[] typeRuntimes = this.runtimes[type.ordinal()];
+        int lo = 0;
+        int hi = typeRuntimes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (typeRuntimes[mid] > runtime) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
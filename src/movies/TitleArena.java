@@ -0,0 +1,367 @@
+package movies;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The titles of the columnar store, kept once as UTF-8 bytes in one contiguous
+ * array and found by the start and length of each row's bytes.  Millions of
+ * String objects, each with its own header and byte array, become one array
+ * that the garbage collector never has to trace.  Short titles are interned
+ * while the arena is built, so the many rows that share a title like
+ * "Episode #1.1" share its bytes too.
+ * <br>
+ * A title is only decoded to a String by get(), when it is printed.  The
+ * queries work on the bytes: contains() matches UTF-8 encoded words, which is
+ * the same as String.contains since no UTF-8 sequence starts inside another,
+ * and compare() orders the bytes the way String.compareTo orders the titles.
+ *
+ * @author Ryan Nowak
+ */
+public final class TitleArena {
+    /** titles of up to this many bytes are interned */
+    private final static int INTERN_BYTES = 32;
+    /** the smallest lead byte that can start a character that UTF-16 orders
+     * differently from its code point, U+E000 and above */
+    private final static int HIGH_LEAD = 0xEE;
+    /** a built arena is only trimmed if more than this fraction of its bytes
+     * are unused, since trimming copies them all */
+    private final static int TRIM_FRACTION = 8;
+
+    /** the bytes of every title, possibly followed by unused room */
+    private final byte[] bytes;
+    /** the number of bytes used */
+    private final int used;
+    /** where the bytes of each row start */
+    private final int[] starts;
+    /** the number of bytes of each row */
+    private final int[] lengths;
+
+    /**
+     * Create an arena.
+     *
+     * @param bytes the bytes of every title
+     * @param used the number of bytes used
+     * @param starts where the bytes of each row start
+     * @param lengths the number of bytes of each row
+     */
+    private TitleArena(byte[] bytes, int used, int[] starts, int[] lengths) {
+        this.bytes = bytes;
+        this.used = used;
+        this.starts = starts;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of titles
+     */
+    public int size() {
+        return this.starts.length;
+    }
+
+    /**
+     * Write the arena to a snapshot, without its unused room.
+     *
+     * @param out the snapshot
+     * @throws IOException if the write fails
+     */
+    void write(MovieSnapshot.Output out) throws IOException {
+        out.putBytes(this.bytes, this.used);
+        out.putInts(this.starts);
+        out.putInts(this.lengths);
+    }
+
+    /**
+     * Read an arena written by write().
+     *
+     * @param in the snapshot
+     * @return the arena
+     * @throws IOException if the read fails
+     */
+    static TitleArena read(MovieSnapshot.Input in) throws IOException {
+        byte[] bytes = in.getBytes();
+        int[] starts = in.getInts();
+        int[] lengths = in.getInts();
+        if (starts.length != lengths.length) {
+            throw new IOException("snapshot titles are damaged");
+        }
+        return new TitleArena(bytes, bytes.length, starts, lengths);
+    }
+
+    /**
+     * Decode the title of a row.
+     *
+     * @param row the row
+     * @return the title
+     */
+    public String get(int row) {
+        return new String(this.bytes, this.starts[row], this.lengths[row], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Does the title of a row contain a substring?
+     *
+     * @param row the row
+     * @param words the substring, UTF-8 encoded
+     * @return whether the title contains it
+     */
+    public boolean contains(int row, byte[] words) {
+        if (words.length == 0) {
+            return true;
+        }
+        // a position is only compared in full if its first and last bytes match
+        byte first = words[0];
+        int end = words.length - 1;
+        byte lastByte = words[end];
+        int last = this.starts[row] + this.lengths[row] - words.length;
+        for (int i = this.starts[row]; i <= last; ++i) {
+            if (this.bytes[i] == first && this.bytes[i + end] == lastByte) {
+                int j = 1;
+                while (j < end && this.bytes[i + j] == words[j]) {
+                    ++j;
+                }
+                if (j >= end) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compare the titles of two rows the way String.compareTo compares them.
+     * UTF-8 bytes order the same as the code points they encode, which is the
+     * order of the UTF-16 chars a String compares, up to U+E000.  Only titles
+     * that first differ in a character from there up are decoded to compare.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @return less than 0, 0 or greater than 0 as the first title orders
+     * before, the same as, or after the second
+     */
+    public int compare(int row1, int row2) {
+        int start1 = this.starts[row1];
+        int start2 = this.starts[row2];
+        int length1 = this.lengths[row1];
+        int length2 = this.lengths[row2];
+        if (start1 == start2 && length1 == length2) {
+            return 0;
+        }
+        int common = Math.min(length1, length2);
+        int at = Arrays.mismatch(this.bytes, start1, start1 + common, this.bytes, start2, start2 + common);
+        if (at < 0) {
+            return length1 - length2;
+        }
+        // the bytes before are equal, so both differ within the same character,
+        // whose lead byte is the first that is not a continuation byte
+        int lead = at;
+        while (lead > 0 && (this.bytes[start1 + lead] & 0xC0) == 0x80) {
+            --lead;
+        }
+        int byte1 = this.bytes[start1 + at] & 0xFF;
+        int byte2 = this.bytes[start2 + at] & 0xFF;
+        if ((this.bytes[start1 + lead] & 0xFF) >= HIGH_LEAD || byte1 >= HIGH_LEAD || byte2 >= HIGH_LEAD) {
+            return get(row1).compareTo(get(row2));
+        }
+        return byte1 - byte2;
+    }
+
+    /**
+     * Builds an arena one title at a time, interning the short titles.  The
+     * bytes are sized up front from the expected length of the titles, and
+     * only grow by half if that falls short, so a large load does not hold
+     * a doubled array and its copy at once.
+     */
+    public final static class Builder {
+        /** marks an empty slot of the intern table */
+        private final static int EMPTY = -1;
+
+        /** the bytes of the titles added so far, with room for more */
+        private byte[] bytes;
+        /** the number of bytes used */
+        private int used;
+        /** where the bytes of each row start */
+        private final int[] starts;
+        /** the number of bytes of each row */
+        private final int[] lengths;
+        /** the number of rows added */
+        private int size;
+        /** the intern table, holding the first row of each short title */
+        private int[] table;
+        /** the number of occupied slots of the table */
+        private int interned;
+
+        /**
+         * Create a builder for a number of titles.
+         *
+         * @param capacity the number of titles
+         * @param expected the expected number of bytes of the titles, e.g. the
+         * sum of their lengths in chars, which is exact for ASCII titles
+         */
+        public Builder(int capacity, long expected) {
+            this.bytes = new byte[room(0, expected)];
+            this.used = 0;
+            this.starts = new int[capacity];
+            this.lengths = new int[capacity];
+            this.size = 0;
+            this.table = new int[16];
+            Arrays.fill(this.table, EMPTY);
+            this.interned = 0;
+        }
+
+        /**
+         * Create a builder that starts with the titles of an arena, to add more
+         * after them.  Its short titles are interned again, so the new ones
+         * can share their bytes.
+         *
+         * @param arena the titles to start with, which is not modified
+         * @param added the number of titles to add
+         * @param expected the expected number of bytes of the added titles
+         */
+        public Builder(TitleArena arena, int added, long expected) {
+            this.bytes = Arrays.copyOf(arena.bytes, room(arena.used, expected));
+            this.used = arena.used;
+            this.starts = Arrays.copyOf(arena.starts, arena.size() + added);
+            this.lengths = Arrays.copyOf(arena.lengths, arena.size() + added);
+            this.size = arena.size();
+            this.table = new int[16];
+            Arrays.fill(this.table, EMPTY);
+            this.interned = 0;
+            for (int row = 0; row < this.size; ++row) {
+                if (this.lengths[row] <= INTERN_BYTES && find(this.bytes, this.starts[row], this.lengths[row]) < 0) {
+                    insert(row);
+                }
+            }
+        }
+
+        /**
+         * Add the title of the next row.
+         *
+         * @param title the title
+         */
+        public void add(String title) {
+            byte[] encoded = title.getBytes(StandardCharsets.UTF_8);
+            int row = this.size++;
+            if (encoded.length <= INTERN_BYTES) {
+                int slot = find(encoded, 0, encoded.length);
+                if (slot >= 0) {
+                    this.starts[row] = this.starts[this.table[slot]];
+                    this.lengths[row] = encoded.length;
+                    return;
+                }
+            }
+            if (this.used + encoded.length > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, room(this.used + encoded.length, this.bytes.length / 2));
+            }
+            System.arraycopy(encoded, 0, this.bytes, this.used, encoded.length);
+            this.starts[row] = this.used;
+            this.lengths[row] = encoded.length;
+            this.used += encoded.length;
+            if (encoded.length <= INTERN_BYTES) {
+                insert(row);
+            }
+        }
+
+        /**
+         * Finish the arena.
+         *
+         * @return the arena of every title added
+         */
+        public TitleArena build() {
+            byte[] built = this.bytes;
+            if (built.length - this.used > built.length / TRIM_FRACTION) {
+                built = Arrays.copyOf(built, this.used);
+            }
+            return new TitleArena(built, this.used, this.starts, this.lengths);
+        }
+
+        /**
+         * Get the size of an array of bytes with room for more.
+         *
+         * @param used the number of bytes it holds
+         * @param more the number of bytes to make room for
+         * @return the size, at least 16 and at most the largest array
+         */
+        private static int room(int used, long more) {
+            return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, used + more));
+        }
+
+        /**
+         * Hash some bytes.
+         *
+         * @param bytes the array holding them
+         * @param from the first byte
+         * @param to the index after the last byte
+         * @return the hash
+         */
+        private static int hash(byte[] bytes, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; ++i) {
+                hash = 31 * hash + bytes[i];
+            }
+            // spread the bits, since the slot is taken from the low ones
+            return hash ^ (hash >>> 16);
+        }
+
+        /**
+         * Find the slot of the table that holds a title.
+         *
+         * @param encoded the array holding the title's bytes
+         * @param start where its bytes start
+         * @param length the number of bytes
+         * @return the slot, or -1 if the title is not interned
+         */
+        private int find(byte[] encoded, int start, int length) {
+            int mask = this.table.length - 1;
+            for (int slot = hash(encoded, start, start + length) & mask; ; slot = (slot + 1) & mask) {
+                int row = this.table[slot];
+                if (row == EMPTY) {
+                    return -1;
+                }
+                if (this.lengths[row] == length &&
+                    Arrays.equals(this.bytes, this.starts[row], this.starts[row] + length,
+                                  encoded, start, start + length)) {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * Intern the title of a row, growing the table to keep it at most half full.
+         *
+         * @param row the row, whose title is not interned yet
+         */
+        private void insert(int row) {
+            if (2 * (this.interned + 1) > this.table.length) {
+                int[] old = this.table;
+                this.table = new int[old.length * 2];
+                Arrays.fill(this.table, EMPTY);
+                for (int interned : old) {
+                    if (interned != EMPTY) {
+                        place(interned);
+                    }
+                }
+            }
+            place(row);
+            ++this.interned;
+        }
+
+        /**
+         * Put a row in the first empty slot of its probe sequence.
+         *
+         * @param row the row
+         */
+        private void place(int row) {
+            int mask = this.table.length - 1;
+            int start = this.starts[row];
+            int slot = hash(this.bytes, start, start + this.lengths[row]) & mask;
+            while (this.table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            this.table[slot] = row;
+        }
+    }
+}
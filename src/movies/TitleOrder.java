@@ -0,0 +1,71 @@
+package movies;
+
+/**
+ * The rows sorted alphabetically by title, with the rank of each row's title
+ * in that order.  The titles are the only strings the indexes sort by, and
+ * comparing them is most of what building the indexes costs, so they are
+ * sorted once here and the indexes are built from the result: an index
+ * ordered by title alone takes its rows in this order, and an index that
+ * orders by title after other fields compares the ranks, which are ints.
+ *
+ * @author Ryan Nowak
+ */
+final class TitleOrder {
+    /** every row, sorted by title, equal titles in row order */
+    private final int[] sorted;
+    /** the rank of each row's title, equal for equal titles */
+    private final int[] ranks;
+
+    /**
+     * Sort the titles.
+     *
+     * @param rows the movies
+     * @param parallel whether a large dataset is sorted on all cores
+     */
+    TitleOrder(MovieRows rows, boolean parallel) {
+        // the titles are gathered into one array first, so the sort does not
+        // go through a movie for every comparison
+        String[] titles = new String[rows.size()];
+        this.sorted = new int[rows.size()];
+        for (int row = 0; row < this.sorted.length; ++row) {
+            titles[row] = rows.getTitle(row);
+            this.sorted[row] = row;
+        }
+        RowSort.RowComparator byTitle = (row1, row2) -> titles[row1].compareTo(titles[row2]);
+        if (parallel) {
+            RowSort.parallelSort(this.sorted, byTitle);
+        } else {
+            RowSort.sort(this.sorted, byTitle);
+        }
+
+        this.ranks = new int[this.sorted.length];
+        int rank = 0;
+        for (int i = 1; i < this.sorted.length; ++i) {
+            if (!titles[this.sorted[i - 1]].equals(titles[this.sorted[i]])) {
+                ++rank;
+            }
+            this.ranks[this.sorted[i]] = rank;
+        }
+    }
+
+    /**
+     * Get the rows sorted by title.
+     *
+     * @return every row, equal titles in row order, which must not be modified
+     */
+    int[] getSorted() {
+        return this.sorted;
+    }
+
+    /**
+     * Compare the titles of two rows the way MovieRows.compareTitles does.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @return less than 0, 0 or greater than 0 as the first title orders
+     * before, the same as, or after the second
+     */
+    int compare(int row1, int row2) {
+        return Integer.compare(this.ranks[row1], this.ranks[row2]);
+    }
+}
@@ -0,0 +1,333 @@
+package movies;
+
+import cs.TitleType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An index for title prefix (type-ahead) searches.  For each TitleType it
+ * keeps the rows sorted by title, so the titles that start with a prefix are
+ * one contiguous range found with two binary searches.  Over each sorted array
+ * sits a segment tree that holds the position of the most voted row of every
+ * node's range, so the top n rows of a range come out one at a time in
+ * O(n log n) without looking at the rest of the range.
+ * <br>
+ * Rows are ranked like MovieComparatorVotes: by descending number of votes,
+ * then alphabetically by title, and then by row.
+ * <br>
+ * Votes do not move a row in the title order, so when they change update()
+ * only recomputes the tree nodes above the changed rows, and only the types
+ * that get new rows are merged and built again.
+ *
+ * @author Ryan Nowak
+ */
+public final class TitlePrefixIndex {
+    /** marks a segment tree node with no rows */
+    private final static int NONE = -1;
+
+    /** the rows of each type, indexed by TitleType ordinal, sorted by title */
+    private final int[][] sorted;
+    /** the segment tree over each sorted array, holding positions in that array */
+    private final int[][] trees;
+    /** the position of each row in the sorted array of its type */
+    private final int[] positions;
+
+    /**
+     * Build the index.  The sorted arrays are filled from the rows in title
+     * order, so they come out sorted without sorting each one.
+     *
+     * @param rows the movies, whose ratings have been processed
+     * @param titles the rows in title order
+     */
+    TitlePrefixIndex(MovieRows rows, TitleOrder titles) {
+        TitleType[] types = TitleType.values();
+        this.sorted = new int[types.length][];
+        this.trees = new int[types.length][];
+
+        int[] counts = new int[types.length];
+        for (int row = 0; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                ++counts[type.ordinal()];
+            }
+        }
+        for (TitleType type : types) {
+            this.sorted[type.ordinal()] = new int[counts[type.ordinal()]];
+            counts[type.ordinal()] = 0;
+        }
+        // equal titles are in row order
+        for (int row : titles.getSorted()) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                this.sorted[type.ordinal()][counts[type.ordinal()]++] = row;
+            }
+        }
+
+        for (TitleType type : types) {
+            this.trees[type.ordinal()] = buildTree(this.sorted[type.ordinal()], rows);
+        }
+
+        this.positions = new int[rows.size()];
+        for (int[] typeRows : this.sorted) {
+            for (int i = 0; i < typeRows.length; ++i) {
+                this.positions[typeRows[i]] = i;
+            }
+        }
+    }
+
+    /**
+     * Create an index from its arrays.
+     *
+     * @param sorted the rows of each type sorted by title
+     * @param trees the segment tree over each sorted array
+     * @param positions the position of each row in its sorted array
+     */
+    private TitlePrefixIndex(int[][] sorted, int[][] trees, int[] positions) {
+        this.sorted = sorted;
+        this.trees = trees;
+        this.positions = positions;
+    }
+
+    /**
+     * Write the index to a snapshot.
+     *
+     * @param out the snapshot
+     * @throws IOException if the write fails
+     */
+    void write(MovieSnapshot.Output out) throws IOException {
+        out.putIntArrays(this.sorted);
+        out.putIntArrays(this.trees);
+        out.putInts(this.positions);
+    }
+
+    /**
+     * Read an index written by write().
+     *
+     * @param in the snapshot
+     * @return the index
+     * @throws IOException if the read fails
+     */
+    static TitlePrefixIndex read(MovieSnapshot.Input in) throws IOException {
+        return new TitlePrefixIndex(in.getIntArrays(), in.getIntArrays(), in.getInts());
+    }
+
+    /**
+     * Create the index of the movies after some of them have changed their
+     * votes, or new ones have been added after the last row.  Votes do not move
+     * a row, so a type with only changed rows gets a copy of its tree with the
+     * nodes above each changed row recomputed, while a type with new rows has
+     * them merged into its sorted array and its tree built again.  Everything
+     * else is shared with this index, which is not modified.
+     *
+     * @param changed the rows that are new or whose votes changed
+     * @param rows the movies with their new votes
+     * @return the updated index
+     */
+    public TitlePrefixIndex update(BitSet changed, MovieRows rows) {
+        TitleType[] types = TitleType.values();
+        int[] counts = new int[types.length];
+        for (int row = changed.nextSetBit(this.positions.length); row >= 0; row = changed.nextSetBit(row + 1)) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                ++counts[type.ordinal()];
+            }
+        }
+        int[][] added = new int[types.length][];
+        for (TitleType type : types) {
+            added[type.ordinal()] = new int[counts[type.ordinal()]];
+            counts[type.ordinal()] = 0;
+        }
+        for (int row = changed.nextSetBit(this.positions.length); row >= 0; row = changed.nextSetBit(row + 1)) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                added[type.ordinal()][counts[type.ordinal()]++] = row;
+            }
+        }
+
+        int[][] sorted = this.sorted.clone();
+        int[][] trees = this.trees.clone();
+        int[] positions = rows.size() > this.positions.length ?
+                          Arrays.copyOf(this.positions, rows.size()) : this.positions;
+        for (TitleType type : types) {
+            if (added[type.ordinal()].length > 0) {
+                int[] typeRows = RowSort.replace(this.sorted[type.ordinal()], new BitSet(), added[type.ordinal()],
+                                                 rows::compareTitles);
+                for (int i = 0; i < typeRows.length; ++i) {
+                    positions[typeRows[i]] = i;
+                }
+                sorted[type.ordinal()] = typeRows;
+                trees[type.ordinal()] = buildTree(typeRows, rows);
+            }
+        }
+
+        boolean[] copied = new boolean[types.length];
+        for (int row = changed.nextSetBit(0); row >= 0 && row < this.positions.length;
+             row = changed.nextSetBit(row + 1)) {
+            TitleType type = rows.getTitleType(row);
+            if (type == null || added[type.ordinal()].length > 0) {
+                continue;       // a rebuilt tree already has the new votes
+            }
+            int t = type.ordinal();
+            if (!copied[t]) {
+                trees[t] = trees[t].clone();
+                copied[t] = true;
+            }
+            int[] tree = trees[t];
+            for (int node = (tree.length / 2 + positions[row]) / 2; node >= 1; node /= 2) {
+                tree[node] = better(tree[2 * node], tree[2 * node + 1], sorted[t], rows);
+            }
+        }
+        return new TitlePrefixIndex(sorted, trees, positions);
+    }
+
+    /**
+     * Build the segment tree over a sorted array.  Leaf i is position i, and each
+     * inner node holds whichever of its children's positions ranks higher.
+     *
+     * @param typeRows the rows sorted by title
+     * @param rows the movies
+     * @return the tree, where node 1 is the root and the children of node i are 2i and 2i+1
+     */
+    private static int[] buildTree(int[] typeRows, MovieRows rows) {
+        int leaves = 1;
+        while (leaves < typeRows.length) {
+            leaves <<= 1;
+        }
+        int[] tree = new int[2 * leaves];
+        for (int i = 0; i < leaves; ++i) {
+            tree[leaves + i] = i < typeRows.length ? i : NONE;
+        }
+        for (int node = leaves - 1; node >= 1; --node) {
+            tree[node] = better(tree[2 * node], tree[2 * node + 1], typeRows, rows);
+        }
+        return tree;
+    }
+
+    /**
+     * Pick the higher ranked of two positions.
+     *
+     * @param pos1 the first position, or NONE
+     * @param pos2 the second position, or NONE
+     * @param typeRows the rows sorted by title
+     * @param rows the movies
+     * @return the higher ranked position, or NONE if both are NONE
+     */
+    private static int better(int pos1, int pos2, int[] typeRows, MovieRows rows) {
+        if (pos1 == NONE) {
+            return pos2;
+        }
+        if (pos2 == NONE) {
+            return pos1;
+        }
+        return rank(typeRows[pos1], typeRows[pos2], rows) <= 0 ? pos1 : pos2;
+    }
+
+    /**
+     * Rank two rows by descending votes, then title, then row.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @param rows the movies
+     * @return less than 0 if the first row ranks higher, greater than 0 if the second does
+     */
+    private static int rank(int row1, int row2, MovieRows rows) {
+        int result = Integer.compare(rows.getNumVotes(row2), rows.getNumVotes(row1));
+        if (result == 0) {
+            result = rows.compareTitles(row1, row2);
+            if (result == 0) {
+                result = Integer.compare(row1, row2);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the highest ranked position in a range of a sorted array.
+     *
+     * @param tree the segment tree over the array
+     * @param from the first position of the range
+     * @param to the position after the range
+     * @param typeRows the rows sorted by title
+     * @param rows the movies
+     * @return the position, or NONE if the range is empty
+     */
+    private static int best(int[] tree, int from, int to, int[] typeRows, MovieRows rows) {
+        int result = NONE;
+        int leaves = tree.length / 2;
+        for (int lo = from + leaves, hi = to + leaves; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) {
+                result = better(result, tree[lo++], typeRows, rows);
+            }
+            if ((hi & 1) == 1) {
+                result = better(result, tree[--hi], typeRows, rows);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the most voted movies of a type whose titles start with a prefix.
+     *
+     * @param num the number of movies wanted
+     * @param type the movie type
+     * @param prefix the start of the title (case sensitive)
+     * @param rows the movies the index was built over
+     * @return up to num rows, highest ranked first
+     */
+    public List<Integer> topRows(int num, TitleType type, String prefix, MovieRows rows) {
+        int[] typeRows = this.sorted[type.ordinal()];
+        int[] tree = this.trees[type.ordinal()];
+
+        // the titles with the prefix sort after every smaller title and before
+        // every larger title that does not start with it
+        int lo = 0;
+        int hi = typeRows.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rows.getTitle(typeRows[mid]).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int from = lo;
+        hi = typeRows.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rows.getTitle(typeRows[mid]).startsWith(prefix)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int to = lo;
+
+        // each entry is a range and its best position; taking the best entry
+        // splits its range in two around the position taken
+        List<Integer> result = new ArrayList<>();
+        PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                (r1, r2) -> rank(typeRows[r1[0]], typeRows[r2[0]], rows));
+        int first = best(tree, from, to, typeRows, rows);
+        if (first != NONE) {
+            ranges.add(new int[]{first, from, to});
+        }
+        while (result.size() < num && !ranges.isEmpty()) {
+            int[] range = ranges.remove();
+            result.add(typeRows[range[0]]);
+            int left = best(tree, range[1], range[0], typeRows, rows);
+            if (left != NONE) {
+                ranges.add(new int[]{left, range[1], range[0]});
+            }
+            int right = best(tree, range[0] + 1, range[2], typeRows, rows);
+            if (right != NONE) {
+                ranges.add(new int[]{right, range[0] + 1, range[2]});
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,360 @@
+package movies;
+
+import cs.TitleType;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An inverted index from the trigrams (three character substrings) of the
+ * titles to the rows of movieList that contain them, partitioned by TitleType.
+ * Every title that contains a pattern of at least three characters contains
+ * all the pattern's trigrams, so intersecting their posting lists gives a small
+ * set of candidate rows that only need to be checked with String.contains.
+ * <br>
+ * The posting lists all live in one int array, in row order, and a table of
+ * (type, trigram) keys locates each list.  Patterns that are shorter than a
+ * trigram cannot use the index and have to be answered with a scan.
+ *
+ * @author Ryan Nowak
+ */
+public final class TitleTrigramIndex {
+    /** the number of characters in a gram */
+    public final static int GRAM_LENGTH = 3;
+    /** marks an empty slot of the key table */
+    private final static int EMPTY = -1;
+
+    /** the (type, trigram) key in each slot of the table */
+    private long[] keys;
+    /** the number of rows in the posting list of each slot, EMPTY if the slot is unused */
+    private int[] counts;
+    /** the number of used slots */
+    private int used;
+    /** where the posting list of each slot starts in postings */
+    private final int[] starts;
+    /** every posting list, each in ascending row order */
+    private final int[] postings;
+
+    /**
+     * Build the index over the movies.
+     *
+     * @param movies the movies in movieList order
+     */
+    public TitleTrigramIndex(List<Movie> movies) {
+        this.keys = new long[1 << 16];
+        this.counts = new int[1 << 16];
+        Arrays.fill(this.counts, EMPTY);
+        this.used = 0;
+
+        // first count the rows of each posting list, so they can be laid out
+        // back to back in a single array
+        long[] grams = new long[64];
+        long total = 0;
+        for (Movie movie : movies) {
+            grams = ensure(grams, movie.getTitle());
+            int distinct = grams(movie, grams);
+            for (int i = 0; i < distinct; ++i) {
+                int slot = slot(grams[i]);
+                if (this.counts[slot] == EMPTY) {
+                    this.keys[slot] = grams[i];
+                    this.counts[slot] = 0;
+                    if (++this.used * 2 > this.keys.length) {
+                        grow();
+                        slot = slot(grams[i]);
+                    }
+                }
+                ++this.counts[slot];
+            }
+            total += distinct;
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("too many title trigrams to index: " + total);
+        }
+
+        this.starts = new int[this.keys.length];
+        int start = 0;
+        for (int slot = 0; slot < this.keys.length; ++slot) {
+            if (this.counts[slot] != EMPTY) {
+                this.starts[slot] = start;
+                start += this.counts[slot];
+            }
+        }
+
+        // then fill in each list, which leaves the rows in ascending order
+        this.postings = new int[start];
+        int[] filled = this.starts.clone();
+        int row = 0;
+        for (Movie movie : movies) {
+            grams = ensure(grams, movie.getTitle());
+            int distinct = grams(movie, grams);
+            for (int i = 0; i < distinct; ++i) {
+                this.postings[filled[slot(grams[i])]++] = row;
+            }
+            ++row;
+        }
+    }
+
+    /**
+     * Build the index of the movies after new ones have been added after the
+     * last row.  The key table is copied and the new keys added to it, then the
+     * posting lists are laid out again, each one the old list copied as a block
+     * followed by the new rows, which keeps it in ascending row order.
+     *
+     * @param index the index of the movies before the new ones, which is not modified
+     * @param movies the movies in movieList order, including the new ones
+     * @param from the first new row
+     */
+    private TitleTrigramIndex(TitleTrigramIndex index, List<Movie> movies, int from) {
+        this.keys = index.keys.clone();
+        this.counts = index.counts.clone();
+        this.used = index.used;
+
+        long[] grams = new long[64];
+        long total = index.postings.length;
+        for (int row = from; row < movies.size(); ++row) {
+            Movie movie = movies.get(row);
+            grams = ensure(grams, movie.getTitle());
+            int distinct = grams(movie, grams);
+            for (int i = 0; i < distinct; ++i) {
+                int slot = slot(grams[i]);
+                if (this.counts[slot] == EMPTY) {
+                    this.keys[slot] = grams[i];
+                    this.counts[slot] = 0;
+                    if (++this.used * 2 > this.keys.length) {
+                        grow();
+                        slot = slot(grams[i]);
+                    }
+                }
+                ++this.counts[slot];
+            }
+            total += distinct;
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("too many title trigrams to index: " + total);
+        }
+
+        this.starts = new int[this.keys.length];
+        int start = 0;
+        for (int slot = 0; slot < this.keys.length; ++slot) {
+            if (this.counts[slot] != EMPTY) {
+                this.starts[slot] = start;
+                start += this.counts[slot];
+            }
+        }
+
+        this.postings = new int[start];
+        int[] filled = this.starts.clone();
+        for (int slot = 0; slot < index.keys.length; ++slot) {
+            if (index.counts[slot] != EMPTY) {
+                int newSlot = slot(index.keys[slot]);
+                System.arraycopy(index.postings, index.starts[slot], this.postings, filled[newSlot],
+                                 index.counts[slot]);
+                filled[newSlot] += index.counts[slot];
+            }
+        }
+        for (int row = from; row < movies.size(); ++row) {
+            Movie movie = movies.get(row);
+            grams = ensure(grams, movie.getTitle());
+            int distinct = grams(movie, grams);
+            for (int i = 0; i < distinct; ++i) {
+                this.postings[filled[slot(grams[i])]++] = row;
+            }
+        }
+    }
+
+    /**
+     * Create an index from its table and posting lists.
+     *
+     * @param keys the key in each slot of the table
+     * @param counts the number of rows in the posting list of each slot, or EMPTY
+     * @param used the number of used slots
+     * @param starts where the posting list of each slot starts
+     * @param postings every posting list
+     */
+    private TitleTrigramIndex(long[] keys, int[] counts, int used, int[] starts, int[] postings) {
+        this.keys = keys;
+        this.counts = counts;
+        this.used = used;
+        this.starts = starts;
+        this.postings = postings;
+    }
+
+    /**
+     * Write the index to a snapshot.
+     *
+     * @param out the snapshot
+     * @throws IOException if the write fails
+     */
+    void write(MovieSnapshot.Output out) throws IOException {
+        out.putLongs(this.keys);
+        out.putInts(this.counts);
+        out.putInt(this.used);
+        out.putInts(this.starts);
+        out.putInts(this.postings);
+    }
+
+    /**
+     * Read an index written by write().
+     *
+     * @param in the snapshot
+     * @return the index
+     * @throws IOException if the read fails
+     */
+    static TitleTrigramIndex read(MovieSnapshot.Input in) throws IOException {
+        return new TitleTrigramIndex(in.getLongs(), in.getInts(), in.getInt(), in.getInts(), in.getInts());
+    }
+
+    /**
+     * Create the index of the movies after new ones have been added after the
+     * last row, without indexing the old titles again.  This index is not modified.
+     *
+     * @param movies the movies in movieList order, including the new ones
+     * @param from the first new row
+     * @return the updated index
+     */
+    public TitleTrigramIndex append(List<Movie> movies, int from) {
+        return new TitleTrigramIndex(this, movies, from);
+    }
+
+    /**
+     * Make sure a buffer can hold the trigrams of a title.
+     *
+     * @param grams the buffer
+     * @param title the title
+     * @return the buffer, or a larger one
+     */
+    private static long[] ensure(long[] grams, String title) {
+        return grams.length >= title.length() ? grams : new long[title.length() * 2];
+    }
+
+    /**
+     * Find the distinct (type, trigram) keys of a movie's title.
+     *
+     * @param movie the movie
+     * @param grams receives the keys, sorted
+     * @return the number of distinct keys
+     */
+    private static int grams(Movie movie, long[] grams) {
+        if (movie.getTitleType() == null) {
+            return 0;      // no query can ask for a movie of unknown type
+        }
+        return grams(movie.getTitleType(), movie.getTitle(), grams);
+    }
+
+    /**
+     * Find the distinct (type, trigram) keys of a string.
+     *
+     * @param type the type of movie the keys are for
+     * @param text the string
+     * @param grams receives the keys, sorted
+     * @return the number of distinct keys
+     */
+    private static int grams(TitleType type, String text, long[] grams) {
+        int count = 0;
+        long prefix = (long) type.ordinal() << 48;
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); ++i) {
+            grams[count++] = prefix |
+                             (long) text.charAt(i) << 32 |
+                             (long) text.charAt(i + 1) << 16 |
+                             text.charAt(i + 2);
+        }
+        Arrays.sort(grams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; ++i) {
+            if (distinct == 0 || grams[distinct - 1] != grams[i]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Find the slot of the table that holds a key, or the empty slot where it
+     * would go.
+     *
+     * @param key the (type, trigram) key
+     * @return the slot
+     */
+    private int slot(long key) {
+        int mask = this.keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash >>> 32) & mask;
+        while (this.counts[slot] != EMPTY && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Double the table and rehash every key, while the lists are being counted.
+     */
+    private void grow() {
+        long[] oldKeys = this.keys;
+        int[] oldCounts = this.counts;
+        this.keys = new long[oldKeys.length * 2];
+        this.counts = new int[oldCounts.length * 2];
+        Arrays.fill(this.counts, EMPTY);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldCounts[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Find the rows of a type whose titles contain every trigram of a pattern.
+     * These are a superset of the titles that contain the pattern, so each
+     * candidate still has to be checked with String.contains.
+     *
+     * @param type the movie type
+     * @param words the pattern
+     * @return the candidate rows in ascending order, or null if the pattern is
+     * too short to use the index
+     */
+    public int[] candidates(TitleType type, String words) {
+        if (words.length() < GRAM_LENGTH) {
+            return null;
+        }
+        long[] grams = new long[words.length()];
+        int distinct = grams(type, words, grams);
+
+        // intersect from the shortest list, so the candidates only shrink
+        int[] slots = new int[distinct];
+        for (int i = 0; i < distinct; ++i) {
+            slots[i] = slot(grams[i]);
+            if (this.counts[slots[i]] == EMPTY) {
+                return new int[0];
+            }
+        }
+        Integer[] order = new Integer[distinct];
+        for (int i = 0; i < distinct; ++i) {
+            order[i] = slots[i];
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(this.counts[a], this.counts[b]));
+
+        int first = order[0];
+        int[] result = Arrays.copyOfRange(this.postings, this.starts[first],
+                                          this.starts[first] + this.counts[first]);
+        int size = result.length;
+        for (int i = 1; i < distinct && size > 0; ++i) {
+            int from = this.starts[order[i]];
+            int to = from + this.counts[order[i]];
+            int kept = 0;
+            for (int j = 0; j < size; ++j) {
+                // the candidates ascend, so each search starts where the last ended
+                int found = Arrays.binarySearch(this.postings, from, to, result[j]);
+                if (found >= 0) {
+                    result[kept++] = result[j];
+                    from = found + 1;
+                } else {
+                    from = -found - 1;
+                }
+            }
+            size = kept;
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
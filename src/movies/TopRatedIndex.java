@@ -0,0 +1,293 @@
+package movies;
+
+import cs.TitleType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * An index of the movies of each type and year sorted in the natural order of
+ * their ratings: by descending rating, then descending number of votes, then ID.
+ * The top n movies of a year with at least t votes are the first n rows of that
+ * year's list that have t votes.
+ * <br>
+ * So a high threshold does not have to skip past every less voted movie, each
+ * year keeps one list per power of ten of votes (0, 10, 100, ... 1,000,000 votes),
+ * holding only the rows with at least that many.  A query walks the list of
+ * the largest level that is not above its threshold, which skips at most the
+ * rows with less than ten times the level's votes, and stops after n rows.
+ * Any threshold can be asked for without rebuilding the index.
+ * <br>
+ * When ratings change or movies are added, update() merges the changed rows
+ * into the lists of their years only, and every other year is shared with the
+ * old index.
+ *
+ * @author Ryan Nowak
+ */
+public final class TopRatedIndex {
+    /** the threshold of each level, in ascending order */
+    private final static int[] LEVELS = {0, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+    /** a year with no rows */
+    private final static int[] EMPTY = new int[0];
+
+    /** the lists of each (type, year), keyed by key(), indexed by level */
+    private final Map<Long, int[][]> years;
+
+    /**
+     * Build the index.
+     *
+     * @param rows the movies, whose ratings have been processed
+     * @param parallel whether the years of a large dataset are sorted on all cores
+     */
+    public TopRatedIndex(MovieRows rows, boolean parallel) {
+        // count the rows of each year so each array is allocated once
+        Map<Long, int[]> counts = new HashMap<>();
+        for (int row = 0; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                counts.computeIfAbsent(key(type, rows.getYear(row)), k -> new int[1])[0]++;
+            }
+        }
+
+        Map<Long, int[]> all = new HashMap<>(counts.size() * 2);
+        for (Map.Entry<Long, int[]> count : counts.entrySet()) {
+            all.put(count.getKey(), new int[count.getValue()[0]]);
+            count.getValue()[0] = 0;
+        }
+        for (int row = 0; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                long key = key(type, rows.getYear(row));
+                all.get(key)[counts.get(key)[0]++] = row;
+            }
+        }
+
+        // sort each year once, then filter it into the levels, which keeps the order
+        RowSort.RowComparator order = (row1, row2) -> compare(row1, row2, rows);
+        this.years = new HashMap<>(all.size() * 2);
+        if (parallel && rows.size() > ParallelScan.THRESHOLD) {
+            // as in YearGenreIndex, the years are spread over the cores
+            List<Map.Entry<Long, int[]>> years = new ArrayList<>(all.entrySet());
+            int[][][] levels = new int[years.size()][][];
+            IntStream.range(0, years.size()).parallel().forEach(i -> {
+                int[] yearRows = years.get(i).getValue();
+                RowSort.parallelSort(yearRows, order);
+                levels[i] = levels(yearRows, rows);
+            });
+            for (int i = 0; i < levels.length; ++i) {
+                this.years.put(years.get(i).getKey(), levels[i]);
+            }
+        } else {
+            for (Map.Entry<Long, int[]> year : all.entrySet()) {
+                int[] yearRows = year.getValue();
+                RowSort.sort(yearRows, order);
+                this.years.put(year.getKey(), levels(yearRows, rows));
+            }
+        }
+    }
+
+    /**
+     * Create an index from its lists.
+     *
+     * @param years the lists of each (type, year)
+     */
+    private TopRatedIndex(Map<Long, int[][]> years) {
+        this.years = years;
+    }
+
+    /**
+     * Write the index to a snapshot.  A level that holds every row of the
+     * level below is the same array, and is written as a flag so it is read
+     * back as one array too.
+     *
+     * @param out the snapshot
+     * @throws IOException if the write fails
+     */
+    void write(MovieSnapshot.Output out) throws IOException {
+        out.putInt(this.years.size());
+        for (Map.Entry<Long, int[][]> year : this.years.entrySet()) {
+            out.putLong(year.getKey());
+            int[][] levels = year.getValue();
+            out.putInts(levels[0]);
+            for (int level = 1; level < LEVELS.length; ++level) {
+                boolean same = levels[level] == levels[level - 1];
+                out.putInt(same ? 1 : 0);
+                if (!same) {
+                    out.putInts(levels[level]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an index written by write().
+     *
+     * @param in the snapshot
+     * @return the index
+     * @throws IOException if the read fails
+     */
+    static TopRatedIndex read(MovieSnapshot.Input in) throws IOException {
+        int size = in.getInt();
+        Map<Long, int[][]> years = new HashMap<>(size * 2);
+        for (int i = 0; i < size; ++i) {
+            long key = in.getLong();
+            int[][] levels = new int[LEVELS.length][];
+            levels[0] = in.getInts();
+            for (int level = 1; level < LEVELS.length; ++level) {
+                levels[level] = in.getInt() != 0 ? levels[level - 1] : in.getInts();
+            }
+            years.put(key, levels);
+        }
+        return new TopRatedIndex(years);
+    }
+
+    /**
+     * Create the index of the movies after some of them have changed their
+     * ratings, or new ones have been added after the last row.  The years with
+     * changed rows have those rows dropped and merged back in at their new
+     * places, then are filtered into levels again, while the rest are shared
+     * with this index, which is not modified.
+     *
+     * @param changed the rows that are new or whose ratings changed
+     * @param rows the movies with their new ratings
+     * @return the updated index
+     */
+    public TopRatedIndex update(BitSet changed, MovieRows rows) {
+        // group the changed rows by year, counting them first as the constructor does
+        Map<Long, int[]> counts = new HashMap<>();
+        for (int row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                counts.computeIfAbsent(key(type, rows.getYear(row)), k -> new int[1])[0]++;
+            }
+        }
+        Map<Long, int[]> added = new HashMap<>(counts.size() * 2);
+        for (Map.Entry<Long, int[]> count : counts.entrySet()) {
+            added.put(count.getKey(), new int[count.getValue()[0]]);
+            count.getValue()[0] = 0;
+        }
+        for (int row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                long key = key(type, rows.getYear(row));
+                added.get(key)[counts.get(key)[0]++] = row;
+            }
+        }
+
+        RowSort.RowComparator order = (row1, row2) -> compare(row1, row2, rows);
+        Map<Long, int[][]> result = new HashMap<>(this.years);
+        for (Map.Entry<Long, int[]> year : added.entrySet()) {
+            int[][] levels = this.years.get(year.getKey());
+            int[] yearRows = RowSort.replace(levels == null ? EMPTY : levels[0], changed, year.getValue(), order);
+            result.put(year.getKey(), levels(yearRows, rows));
+        }
+        return new TopRatedIndex(result);
+    }
+
+    /**
+     * Filter the rows of a year into its levels.
+     *
+     * @param yearRows all the rows of the year in rating order
+     * @param rows the movies
+     * @return the list of each level
+     */
+    private static int[][] levels(int[] yearRows, MovieRows rows) {
+        int[][] levels = new int[LEVELS.length][];
+        levels[0] = yearRows;
+        for (int level = 1; level < LEVELS.length; ++level) {
+            levels[level] = filter(levels[level - 1], LEVELS[level], rows);
+        }
+        return levels;
+    }
+
+    /**
+     * Keep the rows of a list that have a minimum number of votes.
+     *
+     * @param list the rows in rating order
+     * @param minNumVotes the minimum number of votes
+     * @param rows the movies
+     * @return the rows with enough votes in the same order, or list itself if
+     * every row has enough
+     */
+    private static int[] filter(int[] list, int minNumVotes, MovieRows rows) {
+        int[] result = new int[list.length];
+        int size = 0;
+        for (int row : list) {
+            if (rows.getNumVotes(row) >= minNumVotes) {
+                result[size++] = row;
+            }
+        }
+        return size == list.length ? list : size == 0 ? EMPTY : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Compare two rows the way their Rating objects compare.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @param rows the movies
+     * @return less than 0 if the first row orders first, 0 if they are equal,
+     * greater than 0 if the second row orders first
+     */
+    static int compare(int row1, int row2, MovieRows rows) {
+        int result = Double.compare(rows.getRating(row2), rows.getRating(row1));
+        if (result == 0) {
+            result = rows.getNumVotes(row2) - rows.getNumVotes(row1);
+            if (result == 0) {
+                result = rows.compareIDs(row1, row2);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the key of a (type, year).
+     *
+     * @param type the movie type
+     * @param year the year
+     * @return the key
+     */
+    private static long key(TitleType type, int year) {
+        return ((long) type.ordinal() << 32) | (year & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the top ranked movies of a type for a year.
+     *
+     * @param num the number of movies wanted
+     * @param type the movie type
+     * @param year the year
+     * @param minNumVotes the minimum number of votes a movie needs to be ranked
+     * @param rows the movies the index was built over
+     * @return up to num rows in rating order
+     */
+    public int[] topRows(int num, TitleType type, int year, int minNumVotes, MovieRows rows) {
+        int[][] levels = this.years.get(key(type, year));
+        if (levels == null || num <= 0) {
+            return EMPTY;
+        }
+        int level = LEVELS.length - 1;
+        while (level > 0 && LEVELS[level] > minNumVotes) {
+            --level;
+        }
+        int[] list = levels[level];
+        if (minNumVotes <= LEVELS[level]) {
+            return list.length <= num ? list : Arrays.copyOf(list, num);
+        }
+
+        int[] result = new int[Math.min(num, list.length)];
+        int size = 0;
+        for (int i = 0; i < list.length && size < result.length; ++i) {
+            if (rows.getNumVotes(list[i]) >= minNumVotes) {
+                result[size++] = list[i];
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+}
@@ -0,0 +1,174 @@
+package movies;
+
+import cs.TitleType;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An index of the movies of each type sorted in the MovieComparatorVotes
+ * order: by descending number of votes, then alphabetically by title.  The
+ * movies with the most votes are the front of the array, so a MOST_VOTES query
+ * costs O(k).  Like a TreeSet with that comparator, a query returns only the
+ * first of movies that compare equal.  The arrays keep all of them, equal
+ * movies in row order, so that when the votes change the changed rows can be
+ * merged back in without losing the ones they were hiding.
+ *
+ * @author Ryan Nowak
+ */
+public final class VotesIndex {
+    /** the rows of each type, indexed by TitleType ordinal, in votes order */
+    private final int[][] sorted;
+
+    /**
+     * Build the index.
+     *
+     * @param rows the movies, whose ratings have been processed
+     * @param titles the rows in title order, whose ranks stand in for the titles
+     */
+    VotesIndex(MovieRows rows, TitleOrder titles) {
+        TitleType[] types = TitleType.values();
+        this.sorted = new int[types.length][];
+
+        int[] counts = new int[types.length];
+        for (int row = 0; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                ++counts[type.ordinal()];
+            }
+        }
+        for (TitleType type : types) {
+            this.sorted[type.ordinal()] = new int[counts[type.ordinal()]];
+            counts[type.ordinal()] = 0;
+        }
+        for (int row = 0; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                this.sorted[type.ordinal()][counts[type.ordinal()]++] = row;
+            }
+        }
+
+        RowSort.RowComparator order = (row1, row2) -> {
+            int result = rows.getNumVotes(row2) - rows.getNumVotes(row1);
+            return result != 0 ? result : titles.compare(row1, row2);
+        };
+        for (TitleType type : types) {
+            // the sort is stable, so of the movies that compare equal the first
+            // in the file comes first and is the one a query returns
+            RowSort.sort(this.sorted[type.ordinal()], order);
+        }
+    }
+
+    /**
+     * Create an index from its arrays.
+     *
+     * @param sorted the rows of each type in votes order
+     */
+    private VotesIndex(int[][] sorted) {
+        this.sorted = sorted;
+    }
+
+    /**
+     * Write the index to a snapshot.
+     *
+     * @param out the snapshot
+     * @throws IOException if the write fails
+     */
+    void write(MovieSnapshot.Output out) throws IOException {
+        out.putIntArrays(this.sorted);
+    }
+
+    /**
+     * Read an index written by write().
+     *
+     * @param in the snapshot
+     * @return the index
+     * @throws IOException if the read fails
+     */
+    static VotesIndex read(MovieSnapshot.Input in) throws IOException {
+        return new VotesIndex(in.getIntArrays());
+    }
+
+    /**
+     * Create the index of the movies after some of them have changed their
+     * votes, or new ones have been added after the last row.  Only the types
+     * with changed rows are updated, by dropping those rows and merging them
+     * back in at their new places, and the rest are shared with this index,
+     * which is not modified.
+     *
+     * @param changed the rows that are new or whose votes changed
+     * @param rows the movies with their new votes
+     * @return the updated index
+     */
+    public VotesIndex update(BitSet changed, MovieRows rows) {
+        TitleType[] types = TitleType.values();
+        int[] counts = new int[types.length];
+        for (int row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                ++counts[type.ordinal()];
+            }
+        }
+
+        int[][] added = new int[types.length][];
+        for (TitleType type : types) {
+            added[type.ordinal()] = new int[counts[type.ordinal()]];
+            counts[type.ordinal()] = 0;
+        }
+        for (int row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) {
+            TitleType type = rows.getTitleType(row);
+            if (type != null) {
+                added[type.ordinal()][counts[type.ordinal()]++] = row;
+            }
+        }
+
+        int[][] result = this.sorted.clone();
+        RowSort.RowComparator order = (row1, row2) -> compare(row1, row2, rows);
+        for (TitleType type : types) {
+            if (added[type.ordinal()].length > 0) {
+                result[type.ordinal()] = RowSort.replace(this.sorted[type.ordinal()], changed,
+                                                         added[type.ordinal()], order);
+            }
+        }
+        return new VotesIndex(result);
+    }
+
+    /**
+     * Compare two rows the way MovieComparatorVotes compares their movies.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @param rows the movies
+     * @return less than 0 if the first row orders first, 0 if they are equal,
+     * greater than 0 if the second row orders first
+     */
+    static int compare(int row1, int row2, MovieRows rows) {
+        int result = rows.getNumVotes(row2) - rows.getNumVotes(row1);
+        if (result == 0) {
+            result = rows.compareTitles(row1, row2);
+        }
+        return result;
+    }
+
+    /**
+     * Get the most voted movies of a type, keeping only the first of movies
+     * that compare equal.
+     *
+     * @param num the number of movies wanted
+     * @param type the movie type
+     * @param rows the movies the index was built over
+     * @return up to num rows in votes order
+     */
+    public int[] topRows(int num, TitleType type, MovieRows rows) {
+        int[] typeRows = this.sorted[type.ordinal()];
+        int[] result = new int[Math.max(0, Math.min(num, typeRows.length))];
+        int size = 0;
+        for (int i = 0; i < typeRows.length && size < result.length; ++i) {
+            if (i == 0 || compare(typeRows[i - 1], typeRows[i], rows) != 0) {
+                result[size++] = typeRows[i];
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+}
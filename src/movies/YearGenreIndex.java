@@ -0,0 +1,220 @@
+package movies;
+
+import cs.Genre;
+import cs.TitleType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the movies by type, year and genre.  Each (type, year, genre)
+ * bucket holds its rows sorted alphabetically by title, which is the natural
+ * order of Movie within a single year, so a YEAR_AND_GENRE query is one lookup
+ * that returns an already ordered result.  Like a TreeSet of the movies, a
+ * bucket keeps only the first movie of each title.
+ * <br>
+ * The buckets are filled from the rows in title order, so they come out
+ * sorted without sorting each one.
+ *
+ * @author Ryan Nowak
+ */
+public final class YearGenreIndex {
+    /** a bucket with no rows */
+    private final static int[] EMPTY = new int[0];
+
+    /** the rows of each bucket, keyed by key() */
+    private final Map<Long, int[]> buckets;
+
+    /**
+     * Build the index.
+     *
+     * @param rows the movies
+     * @param titles the rows in title order
+     */
+    YearGenreIndex(MovieRows rows, TitleOrder titles) {
+        // number the buckets as they are first seen and note the number of
+        // each (row, genre), so the rows can then be placed in title order
+        // without looking up their movies or keys again
+        int[] starts = new int[rows.size() + 1];
+        for (int row = 0; row < rows.size(); ++row) {
+            int genres = rows.getTitleType(row) == null ? 0 : Long.bitCount(rows.getGenreMask(row));
+            starts[row + 1] = starts[row] + genres;
+        }
+        int[] numbers = new int[starts[rows.size()]];
+        Map<Long, Integer> numberOf = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        int[] counts = new int[16];
+        int entry = 0;
+        for (int row = 0; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type == null) {
+                continue;
+            }
+            for (long mask = rows.getGenreMask(row); mask != 0; mask &= mask - 1) {
+                long key = key(type, rows.getYear(row), Long.numberOfTrailingZeros(mask));
+                Integer number = numberOf.get(key);
+                if (number == null) {
+                    number = keys.size();
+                    numberOf.put(key, number);
+                    keys.add(key);
+                    if (number == counts.length) {
+                        counts = Arrays.copyOf(counts, number * 2);
+                    }
+                }
+                numbers[entry++] = number;
+                ++counts[number];
+            }
+        }
+
+        // of the movies with the same title the first in the file comes first
+        // in title order, and is the one kept
+        int[][] bucketRows = new int[keys.size()][];
+        for (int number = 0; number < bucketRows.length; ++number) {
+            bucketRows[number] = new int[counts[number]];
+            counts[number] = 0;
+        }
+        for (int row : titles.getSorted()) {
+            for (entry = starts[row]; entry < starts[row + 1]; ++entry) {
+                int number = numbers[entry];
+                bucketRows[number][counts[number]++] = row;
+            }
+        }
+        this.buckets = new HashMap<>(keys.size() * 2);
+        for (int number = 0; number < bucketRows.length; ++number) {
+            this.buckets.put(keys.get(number), firstOfEachTitle(bucketRows[number], titles));
+        }
+    }
+
+    /**
+     * Create an index from its buckets.
+     *
+     * @param buckets the rows of each bucket
+     */
+    private YearGenreIndex(Map<Long, int[]> buckets) {
+        this.buckets = buckets;
+    }
+
+    /**
+     * Write the index to a snapshot.
+     *
+     * @param out the snapshot
+     * @throws IOException if the write fails
+     */
+    void write(MovieSnapshot.Output out) throws IOException {
+        out.putInt(this.buckets.size());
+        for (Map.Entry<Long, int[]> bucket : this.buckets.entrySet()) {
+            out.putLong(bucket.getKey());
+            out.putInts(bucket.getValue());
+        }
+    }
+
+    /**
+     * Read an index written by write().
+     *
+     * @param in the snapshot
+     * @return the index
+     * @throws IOException if the read fails
+     */
+    static YearGenreIndex read(MovieSnapshot.Input in) throws IOException {
+        int size = in.getInt();
+        Map<Long, int[]> buckets = new HashMap<>(size * 2);
+        for (int i = 0; i < size; ++i) {
+            buckets.put(in.getLong(), in.getInts());
+        }
+        return new YearGenreIndex(buckets);
+    }
+
+    /**
+     * Create the index of the movies after new ones have been added after the
+     * last row.  The new rows are merged into the buckets they belong to, where
+     * a title a bucket already has keeps its earlier row, and the other buckets
+     * are shared with this index, which is not modified.
+     *
+     * @param rows the movies, including the new ones
+     * @param from the first new row
+     * @return the updated index
+     */
+    public YearGenreIndex append(MovieRows rows, int from) {
+        // group the new rows by bucket, counting them first as the constructor does
+        Map<Long, int[]> counts = new HashMap<>();
+        for (int row = from; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type == null) {
+                continue;
+            }
+            for (long mask = rows.getGenreMask(row); mask != 0; mask &= mask - 1) {
+                long key = key(type, rows.getYear(row), Long.numberOfTrailingZeros(mask));
+                counts.computeIfAbsent(key, k -> new int[1])[0]++;
+            }
+        }
+        Map<Long, int[]> added = new HashMap<>(counts.size() * 2);
+        for (Map.Entry<Long, int[]> count : counts.entrySet()) {
+            added.put(count.getKey(), new int[count.getValue()[0]]);
+            count.getValue()[0] = 0;
+        }
+        for (int row = from; row < rows.size(); ++row) {
+            TitleType type = rows.getTitleType(row);
+            if (type == null) {
+                continue;
+            }
+            for (long mask = rows.getGenreMask(row); mask != 0; mask &= mask - 1) {
+                long key = key(type, rows.getYear(row), Long.numberOfTrailingZeros(mask));
+                added.get(key)[counts.get(key)[0]++] = row;
+            }
+        }
+
+        Map<Long, int[]> result = new HashMap<>(this.buckets);
+        for (Map.Entry<Long, int[]> bucket : added.entrySet()) {
+            result.put(bucket.getKey(),
+                       RowSort.insertDistinct(this.buckets.getOrDefault(bucket.getKey(), EMPTY), bucket.getValue(),
+                                              rows::compareTitles));
+        }
+        return new YearGenreIndex(result);
+    }
+
+    /**
+     * Keep only the first row of each title in a bucket.
+     *
+     * @param bucketRows the rows sorted by title, equal titles in row order,
+     *                   which are modified
+     * @param titles the rows in title order
+     * @return the rows kept, which may be bucketRows itself
+     */
+    private static int[] firstOfEachTitle(int[] bucketRows, TitleOrder titles) {
+        int kept = 0;
+        for (int row : bucketRows) {
+            if (kept == 0 || titles.compare(bucketRows[kept - 1], row) != 0) {
+                bucketRows[kept++] = row;
+            }
+        }
+        return kept < bucketRows.length ? Arrays.copyOf(bucketRows, kept) : bucketRows;
+    }
+
+    /**
+     * Get the key of a bucket.
+     *
+     * @param type the movie type
+     * @param year the year
+     * @param genre the genre ordinal
+     * @return the key
+     */
+    private static long key(TitleType type, int year, int genre) {
+        return ((long) type.ordinal() << 40) | ((long) genre << 32) | (year & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the movies of a type for a year that are a certain genre.
+     *
+     * @param type the movie type
+     * @param year the year
+     * @param genre the genre
+     * @return the rows ordered alphabetically by title, which must not be modified
+     */
+    public int[] getRows(TitleType type, int year, Genre genre) {
+        return this.buckets.getOrDefault(key(type, year, genre.ordinal()), EMPTY);
+    }
+}